@@ -16,25 +16,24 @@
 
 package mx.lhchavez.paradis.client;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
+import mx.lhchavez.paradis.io.DataOutputBuffer;
 import mx.lhchavez.paradis.io.StreamRecordReader;
-import mx.lhchavez.paradis.io.StreamRecordWriter;
 import mx.lhchavez.paradis.io.WritableThrowable;
+import mx.lhchavez.paradis.mapreduce.MapOutput;
 import mx.lhchavez.paradis.mapreduce.Mapper;
 import mx.lhchavez.paradis.mapreduce.MapperContext;
+import mx.lhchavez.paradis.mapreduce.ReduceTask;
 import mx.lhchavez.paradis.mapreduce.TaskAttemptID;
 import mx.lhchavez.paradis.util.Configuration;
 import mx.lhchavez.paradis.util.FileUtils;
@@ -133,15 +132,6 @@ public class Client {
 
                         conf.validate(jobwd);
 
-                        StreamRecordReader srr = new StreamRecordReader(in, conf.getKeyInClass(), conf.getValueInClass());
-                        StreamRecordWriter srw = new StreamRecordWriter();
-
-                        File outputFile = new File(outputDirectory.getCanonicalPath() + File.separator + taid.getTaskID());
-                        srw.setOutput(new RandomAccessFile(outputFile, "rw"));
-
-                        MapperContext context = new MapperContext(conf, taid, srr, srw, progress);
-                        Mapper m = conf.getMapperClass().newInstance();
-
                         new Thread(new Runnable() {
                             public void run() {
                                 synchronized(lock) {
@@ -171,21 +161,38 @@ public class Client {
                             }
                         }).start();
 
-                        m.run(context);
+                        File outputFile;
+                        String contentType;
+
+                        if(taid.getType() == TaskAttemptID.Type.Reduce) {
+                            outputFile = reduce(in, taid, conf, jobwd, progress);
+                            contentType = "application/zip";
+                        } else {
+                            StreamRecordReader srr = new StreamRecordReader(in, conf.getKeyInClass(), conf.getValueInClass());
+                            srr.setReuse(conf.getBoolean("mapper.input.reuse", false));
+                            outputFile = new File(outputDirectory.getCanonicalPath() + File.separator + taid.getTaskID());
+                            MapOutput srw = new MapOutput(conf, outputFile, new File(jobwd.getCanonicalPath() + File.separator + "sort"));
+
+                            MapperContext context = new MapperContext(conf, taid, srr, srw, progress);
+                            Mapper m = conf.getMapperClass().newInstance();
+
+                            m.run(context);
+                            context.close();
+                            contentType = "application/paradis-record";
+                        }
+
                         synchronized(lock) {
                             progress.set(1.0f);
                             lock.notify();
                         }
 
-                        srw.close();
-
                         HttpURLConnection finishURL = (HttpURLConnection)new URL(paradis, "job/" + taid.getJobID() + "/task/" + taid.getTaskID() + "/finished").openConnection();
 
                         finishURL.setDoInput(false);
                         finishURL.setDoOutput(true);
 
                         finishURL.setFixedLengthStreamingMode((int) outputFile.length());
-                        finishURL.addRequestProperty("Content-Type", "application/paradis-record");
+                        finishURL.addRequestProperty("Content-Type", contentType);
                         OutputStream out = finishURL.getOutputStream();
                         FileInputStream fis = new FileInputStream(outputFile);
                         byte[] buffer = new byte[1024];
@@ -194,7 +201,11 @@ public class Client {
                         while((read = fis.read(buffer)) > 0) {
                             out.write(buffer, 0, read);
                         }
+                        fis.close();
                         out.close();
+
+                        if(taid.getType() == TaskAttemptID.Type.Reduce)
+                            FileUtils.delete(outputFile.getParentFile());
                     } catch(Exception ex) {
                         WritableThrowable wt = new WritableThrowable(ex);
                         
@@ -203,10 +214,8 @@ public class Client {
                             lock.notify();
                         }
 
-                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                        DataOutputStream dos = new DataOutputStream(baos);
-                        wt.write(dos);
-                        dos.close();
+                        DataOutputBuffer errorBuffer = new DataOutputBuffer();
+                        wt.write(errorBuffer);
 
                         HttpURLConnection finishURL = (HttpURLConnection)new URL(paradis, "job/" + taid.getJobID() + "/task/" + taid.getTaskID() + "/error").openConnection();
 
@@ -214,12 +223,12 @@ public class Client {
                         finishURL.setDoOutput(true);
 
                         finishURL.addRequestProperty("Content-Type", "application/paradis-record");
-                        finishURL.setFixedLengthStreamingMode(baos.size());
+                        finishURL.setFixedLengthStreamingMode(errorBuffer.getLength());
                         OutputStream out = finishURL.getOutputStream();
                         byte[] buffer = new byte[1024];
                         int read;
 
-                        out.write(baos.toByteArray());
+                        errorBuffer.writeTo(out);
                         out.close();
                     }
                 } else if(conn.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
@@ -239,4 +248,36 @@ public class Client {
             }
         }
     }
+
+    /**
+     * Runs a reduce task over the map output shards that were sent along with
+     * it, and returns a zip archive of the partition's output.
+     */
+    private static File reduce(DataInputStream in, TaskAttemptID taid, Configuration conf, File jobwd, Progress progress) throws InstantiationException, IllegalAccessException, IOException {
+        File reduceDirectory = new File(jobwd.getCanonicalPath() + File.separator + "reduce" + File.separator + taid.getPartition());
+        File shuffleDirectory = new File(reduceDirectory + File.separator + "in");
+        File outputDirectory = new File(reduceDirectory + File.separator + "output");
+
+        // an earlier attempt might have left something behind
+        FileUtils.delete(reduceDirectory);
+        shuffleDirectory.mkdirs();
+
+        File[] shards = new File[in.readInt()];
+        for(int i = 0; i < shards.length; i++) {
+            long length = in.readLong();
+
+            shards[i] = new File(shuffleDirectory + File.separator + i);
+            FileOutputStream fos = new FileOutputStream(shards[i]);
+            FileUtils.copy(in, fos, length);
+            fos.close();
+        }
+
+        ReduceTask task = new ReduceTask(conf, taid.getJobID(), taid.getPartition());
+        task.run(shards, outputDirectory, new File(reduceDirectory + File.separator + "sort"), conf.getInt("sort.memory", 64) * 1024L * 1024L, progress);
+
+        File outputFile = new File(reduceDirectory + File.separator + "output.zip");
+        FileUtils.zip(outputDirectory, new FileOutputStream(outputFile));
+
+        return outputFile;
+    }
 }
@@ -16,9 +16,11 @@
 
 package mx.lhchavez.paradis.client;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -151,12 +153,41 @@ public class Interface {
             try {
                 URL root = new URL(args[2]);
 
-                for(long l = 0; ; l++) {
-                    URL download = new URL(root, String.format("job/%s/output/%08d.out", args[1], l));
+                HttpURLConnection conn = (HttpURLConnection)new URL(root, "job/" + args[1] + "/output").openConnection();
 
-                    FileUtils.download(download, new File(String.format("%s%s%08d.out", outputDir.getCanonicalPath(), File.separator, l)));
+                int responseCode = conn.getResponseCode();
+                if(responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                    System.err.println("Output for job " + args[1] + " not found!");
+                    System.exit(1);
+                } else if(responseCode != HttpURLConnection.HTTP_OK) {
+                    FileUtils.copy(conn.getInputStream(), System.err, false);
+                    System.out.println();
+                    System.exit(1);
+                }
+
+                BufferedReader listing = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+                String file;
+
+                while((file = listing.readLine()) != null) {
+                    if(file.length() == 0) continue;
+
+                    // compressed outputs are decoded while downloading
+                    String name = file;
+                    if(name.endsWith(".gz"))
+                        name = name.substring(0, name.length() - 3);
+                    else if(name.endsWith(".deflate"))
+                        name = name.substring(0, name.length() - 8);
+
+                    File destination = new File(outputDir.getCanonicalPath() + File.separator + name.replace('/', File.separatorChar));
+                    destination.getParentFile().mkdirs();
+
+                    FileUtils.download(new URL(root, "job/" + args[1] + "/output/" + file), destination);
                 }
+
+                listing.close();
             } catch(IOException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
             }
         } else if(args[0].equals("version")) {
             try {
@@ -18,17 +18,19 @@ package mx.lhchavez.paradis.client;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.RandomAccessFile;
+import java.io.FileOutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import mx.lhchavez.paradis.io.StreamRecordReader;
-import mx.lhchavez.paradis.io.StreamRecordWriter;
+import mx.lhchavez.paradis.mapreduce.MapOutput;
 import mx.lhchavez.paradis.mapreduce.Mapper;
 import mx.lhchavez.paradis.mapreduce.MapperContext;
+import mx.lhchavez.paradis.mapreduce.ReduceTask;
 import mx.lhchavez.paradis.mapreduce.TaskAttemptID;
 import mx.lhchavez.paradis.server.Job;
 import mx.lhchavez.paradis.server.JobFactory;
 import mx.lhchavez.paradis.util.Configuration;
+import mx.lhchavez.paradis.util.FileUtils;
 import mx.lhchavez.paradis.util.Progress;
 
 /**
@@ -63,17 +65,32 @@ public class Standalone {
         File jobwd = new File("jobs" + File.separator + currentJob.getID());
         File inputDir = new File(jobwd.getCanonicalPath() + File.separator + "in");
 
-        StreamRecordWriter srw = new StreamRecordWriter();
-
         while((taid = currentJob.getNextTask()) != null) {
+            if(taid.getType() == TaskAttemptID.Type.Reduce) {
+                // reduce the partition just like a client would
+                File reduceDirectory = new File(jobwd.getCanonicalPath() + File.separator + "reduce" + File.separator + taid.getPartition());
+                File taskOutput = new File("tmp");
+
+                ReduceTask task = new ReduceTask(conf, currentJob.getID(), taid.getPartition());
+                task.run(currentJob.getShards(taid.getPartition()), reduceDirectory, new File(jobwd.getCanonicalPath() + File.separator + "sort" + File.separator + taid.getPartition()), conf.getInt("sort.memory", 64) * 1024L * 1024L, new Progress());
+                FileUtils.zip(reduceDirectory, new FileOutputStream(taskOutput));
+
+                currentJob.taskFinished(taid, new FileInputStream(taskOutput));
+
+                FileUtils.delete(reduceDirectory);
+                taskOutput.delete();
+                continue;
+            }
+
             StreamRecordReader srr = new StreamRecordReader(new FileInputStream(inputDir.getCanonicalPath() + File.separator + taid.getTaskID()), conf.getKeyInClass(), conf.getValueInClass());
+            srr.setReuse(conf.getBoolean("mapper.input.reuse", false));
             File taskOutput = new File("tmp");
-            srw.setOutput(new RandomAccessFile(taskOutput, "rw"));
+            MapOutput srw = new MapOutput(conf, taskOutput, new File(jobwd.getCanonicalPath() + File.separator + "sort"));
             
             MapperContext mc = new MapperContext(currentJob.getConfiguration(), taid, srr, srw, new Progress());
             mapper.run(mc);
 
-            srw.close();
+            mc.close();
 
             currentJob.taskFinished(taid, new FileInputStream(taskOutput));
 
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads a record stream with the {@link StreamRecordWriter#BLOCKED} flag
+ * out of a file, using its block index to jump straight to a record or to
+ * read only the blocks that start within a byte range. Splitting a stream
+ * by byte ranges hands out every block exactly once.
+ *
+ * @author lhchavez
+ */
+public class BlockRecordReader<K extends Writable, V extends Writable> implements RecordReader<K, V> {
+    private RandomAccessFile file;
+    private long startPtr;
+    private int flags;
+    private long recordCount;
+    private long[] blockOffsets;
+    private long[] blockRecords;
+
+    private WritableFactory<? extends K> keyFactory;
+    private WritableFactory<? extends V> valueFactory;
+    private boolean reuse;
+    private K currentKey;
+    private V currentValue;
+
+    private RecordBlock block;
+    private int blockRemaining;
+    private int nextBlock;
+    private int endBlock;
+    private long firstRecord;
+    private long readCount;
+
+    /**
+     * Opens the stream that starts at the current position of the file.
+     */
+    public BlockRecordReader(RandomAccessFile file, Class<? extends K> keyClass, Class<? extends V> valueClass) throws IOException {
+        this.file = file;
+        this.startPtr = file.getFilePointer();
+
+        int length = file.readInt();
+        if(file.readInt() != StreamRecordWriter.EXTENDED_HEADER)
+            throw new IOException("Not a block-indexed record stream");
+        flags = file.readInt();
+        recordCount = file.readInt();
+        if((flags & StreamRecordWriter.BLOCKED) == 0)
+            throw new IOException("Not a block-indexed record stream");
+
+        byte[] sync = new byte[StreamRecordWriter.SYNC_LENGTH];
+        file.readFully(sync);
+        block = new RecordBlock(sync, flags);
+
+        // the offset of the index is the last thing in the stream
+        file.seek(startPtr + 4 + length - 8);
+        file.seek(startPtr + file.readLong());
+
+        int blockCount = file.readInt();
+        blockOffsets = new long[blockCount];
+        blockRecords = new long[blockCount];
+        for(int i = 0; i < blockCount; i++) {
+            blockOffsets[i] = file.readLong();
+            blockRecords[i] = file.readLong();
+        }
+
+        keyFactory = WritableFactory.get(keyClass);
+        valueFactory = WritableFactory.get(valueClass);
+        reuse = false;
+
+        setRange(0, Long.MAX_VALUE);
+    }
+
+    /**
+     * @see StreamRecordReader#setReuse(boolean)
+     */
+    public void setReuse(boolean reuse) {
+        this.reuse = reuse;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public int getBlockCount() {
+        return blockOffsets.length;
+    }
+
+    /**
+     * @return the offset of a block, relative to the start of the stream
+     */
+    public long getBlockOffset(int block) {
+        return blockOffsets[block];
+    }
+
+    /**
+     * @return the number of the first record of a block
+     */
+    public long getBlockFirstRecord(int block) {
+        return blockRecords[block];
+    }
+
+    /**
+     * Restricts the reader to the blocks that start at an offset in
+     * [start, end), relative to the start of the stream, and rewinds it to
+     * the first of them.
+     */
+    public void setRange(long start, long end) {
+        nextBlock = lowerBound(blockOffsets, start);
+        endBlock = lowerBound(blockOffsets, end);
+        firstRecord = recordAt(nextBlock);
+        blockRemaining = 0;
+        readCount = firstRecord;
+    }
+
+    /**
+     * Positions the reader so the next call to {@link #nextKeyValue()}
+     * returns the given record. The range is reset to the whole stream.
+     */
+    public void seek(long record) throws IOException {
+        if(record < 0 || record > recordCount)
+            throw new IndexOutOfBoundsException();
+
+        setRange(0, Long.MAX_VALUE);
+        if(record == recordCount) {
+            nextBlock = endBlock;
+            readCount = recordCount;
+            return;
+        }
+
+        // the last block that starts at or before the record
+        nextBlock = lowerBound(blockRecords, record + 1) - 1;
+        loadBlock();
+
+        DataInputBuffer in = block.getInput();
+        for(long r = blockRecords[nextBlock - 1]; r < record; r++) {
+            in.skipBytes(readLength(in));
+            in.skipBytes(readLength(in));
+            blockRemaining--;
+        }
+        readCount = record;
+    }
+
+    public boolean nextKeyValue() throws IOException {
+        if(blockRemaining == 0) {
+            if(nextBlock >= endBlock) return false;
+            loadBlock();
+        }
+
+        if(!reuse || currentKey == null) {
+            currentKey = keyFactory.newInstance();
+            currentValue = valueFactory.newInstance();
+        }
+
+        DataInputBuffer in = block.getInput();
+        readLength(in);
+        currentKey.readFields(in);
+        readLength(in);
+        currentValue.readFields(in);
+
+        blockRemaining--;
+        readCount++;
+
+        return true;
+    }
+
+    public K getCurrentKey() {
+        return currentKey;
+    }
+
+    public V getCurrentValue() {
+        return currentValue;
+    }
+
+    public float getProgress() {
+        long records = recordAt(endBlock) - firstRecord;
+        if(records == 0) return 1;
+
+        return (readCount - firstRecord) / (float) records;
+    }
+
+    public void close() throws IOException {
+        block.close();
+        file.close();
+    }
+
+    private void loadBlock() throws IOException {
+        file.seek(startPtr + blockOffsets[nextBlock]);
+        block.read(file);
+        blockRemaining = block.getRecords();
+        nextBlock++;
+    }
+
+    private int readLength(DataInputBuffer in) throws IOException {
+        if((flags & StreamRecordWriter.VINT_LENGTHS) != 0)
+            return WritableUtils.readVInt(in);
+
+        return in.readInt();
+    }
+
+    private long recordAt(int block) {
+        if(block >= blockRecords.length) return recordCount;
+
+        return blockRecords[block];
+    }
+
+    /**
+     * @return the first index whose value is not less than the key
+     */
+    private static int lowerBound(long[] values, long key) {
+        int lo = 0, hi = values.length;
+
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+
+            if(values[mid] < key)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a record stream is corrupt: a block doesn't match its
+ * checksum or its header makes no sense.
+ *
+ * @author lhchavez
+ */
+public class ChecksumException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ChecksumException(String message) {
+        super(message);
+    }
+}
@@ -21,22 +21,33 @@ import java.io.DataInput;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.UTFDataFormatException;
-import java.util.Arrays;
 
 /**
+ * Reads from a slice of a byte array, without copying it. The array is
+ * shared with the caller, so it must not change while it is being read.
+ * {@link #getPosition()} and {@link #getLength()} are offsets into
+ * {@link #getData()}.
  *
  * @author lhchavez
  */
 public class DataInputBuffer implements Closeable, DataInput {
-    private byte[] data = new byte[0];
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] data = EMPTY;
     private int position = 0;
+    private int limit = 0;
     
     public void reset(byte[] input, int length) {
         reset(input, 0, length);
     }
 
     public void reset(byte[] input, int start, int length) {
-        data = Arrays.copyOfRange(input, start, length);
+        if(start < 0 || length < 0 || start + length > input.length)
+            throw new IndexOutOfBoundsException();
+
+        data = input;
+        position = start;
+        limit = start + length;
     }
 
     public byte[] getData() {
@@ -47,21 +58,25 @@ public class DataInputBuffer implements Closeable, DataInput {
         return position;
     }
 
+    /**
+     * @return the offset where the slice ends
+     */
     public int getLength() {
-        return data.length;
+        return limit;
+    }
+
+    public int available() {
+        return limit - position;
     }
     
     public void close() throws IOException {
-        data = new byte[0];
+        data = EMPTY;
         position = 0;
+        limit = 0;
     }
 
     public void readFully(byte[] b) throws IOException {
-        if(b == null)
-            throw new NullPointerException();
-
-        for(int i = 0; i < b.length; i++)
-            b[i] = readByte();
+        readFully(b, 0, b.length);
     }
 
     public void readFully(byte[] b, int off, int len) throws IOException {
@@ -70,12 +85,13 @@ public class DataInputBuffer implements Closeable, DataInput {
         if( off < 0 || len < 0 || off + len > b.length)
             throw new IndexOutOfBoundsException();
 
-        for(int i = 0; i < len; i++)
-            b[off + i] = readByte();
+        require(len);
+        System.arraycopy(data, position, b, off, len);
+        position += len;
     }
 
     public int skipBytes(int n) throws IOException {
-        n = Math.min(n, data.length - position);
+        n = Math.max(0, Math.min(n, limit - position));
         position += n;
 
         return n;
@@ -86,74 +102,49 @@ public class DataInputBuffer implements Closeable, DataInput {
     }
 
     public byte readByte() throws IOException {
-        if(position == data.length)
+        if(position == limit)
             throw new EOFException();
         
         return data[position++];
     }
 
     public int readUnsignedByte() throws IOException {
-        if(position == data.length)
-            throw new EOFException();
-
-        int ans = data[position] & 0x7f;
-        if( (data[position] & 0x80) != 0 )
-            ans |= 0x80;
-
-        position++;
-        
         return readByte() & 0xff;
     }
 
     public short readShort() throws IOException {
-        byte a = readByte();
-        byte b = readByte();
-
-        return (short)((a << 8) | (b & 0xff));
+        return (short) readUnsignedShort();
     }
 
     public int readUnsignedShort() throws IOException {
-        byte a = readByte();
-        byte b = readByte();
+        require(2);
 
-        return (((a & 0xff) << 8) | (b & 0xff));
+        int ans = ((data[position] & 0xff) << 8) | (data[position + 1] & 0xff);
+        position += 2;
+
+        return ans;
     }
 
     public char readChar() throws IOException {
-        byte a = readByte();
-        byte b = readByte();
-
-        return (char)((a << 8) | (b & 0xff));
+        return (char) readUnsignedShort();
     }
 
     public int readInt() throws IOException {
-        byte a = readByte();
-        byte b = readByte();
-        byte c = readByte();
-        byte d = readByte();
+        require(4);
+
+        int ans = WritableComparator.readInt(data, position);
+        position += 4;
 
-        return (((a & 0xff) << 24) | ((b & 0xff) << 16) |
-            ((c & 0xff) << 8) | (d & 0xff));
+        return ans;
     }
 
     public long readLong() throws IOException {
-        byte a = readByte();
-        byte b = readByte();
-        byte c = readByte();
-        byte d = readByte();
-        byte e = readByte();
-        byte f = readByte();
-        byte g = readByte();
-        byte h = readByte();
-
-        return (((long)(a & 0xff) << 56) |
-          ((long)(b & 0xff) << 48) |
-          ((long)(c & 0xff) << 40) |
-          ((long)(d & 0xff) << 32) |
-          ((long)(e & 0xff) << 24) |
-          ((long)(f & 0xff) << 16) |
-          ((long)(g & 0xff) <<  8) |
-          ((long)(h & 0xff)));
+        require(8);
+
+        long ans = WritableComparator.readLong(data, position);
+        position += 8;
+
+        return ans;
     }
 
     public float readFloat() throws IOException {
@@ -165,12 +156,12 @@ public class DataInputBuffer implements Closeable, DataInput {
     }
 
     public String readLine() throws IOException {
-        if(position == data.length) return null;
+        if(position == limit) return null;
         
         StringBuilder builder = new StringBuilder();
         char c;
 
-        while(position != data.length) {
+        while(position != limit) {
             c = (char)(data[position++] & 0xff);
 
             if(c == '\n') break;
@@ -181,45 +172,49 @@ public class DataInputBuffer implements Closeable, DataInput {
     }
 
     public String readUTF() throws IOException {
-        short utfLength = readShort();
-        byte a, b, c;
-
-        if(utfLength + position > data.length)
-            throw new EOFException();
+        int utfLength = readUnsignedShort();
+        require(utfLength);
 
-        StringBuilder builder = new StringBuilder();
+        int end = position + utfLength;
+        char[] chars = new char[utfLength];
+        int count = 0;
+        int a, b, c;
 
-        while(utfLength > 0) {
-            a = readByte();
-            utfLength--;
+        while(position < end) {
+            a = data[position++] & 0xff;
 
             if( (a & 0x80) == 0x00 ) {
-                builder.append((char)a);
+                chars[count++] = (char)a;
             } else if( (a & 0xE0) == 0xC0 ) {
-                if(utfLength < 1)
+                if(end - position < 1)
                     throw new UTFDataFormatException();
 
-                b = readByte();
-                utfLength--;
+                b = data[position++];
 
                 if( (b & 0xC0) != 0x80 )
                     throw new UTFDataFormatException();
 
-                builder.append( (char)(((a& 0x1F) << 6) | (b & 0x3F)) );
+                chars[count++] = (char)(((a & 0x1F) << 6) | (b & 0x3F));
             } else if( (a & 0xF0 ) == 0xE0 ) {
-                if(utfLength < 2)
+                if(end - position < 2)
                     throw new UTFDataFormatException();
 
-                b = readByte(); c = readByte();
-                utfLength -= 2;
+                b = data[position++]; c = data[position++];
 
                 if( (b & 0xC0) != 0x80 || (c & 0xC0) != 0x80 )
                     throw new UTFDataFormatException();
 
-                builder.append( (char)(((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F)) );
+                chars[count++] = (char)(((a & 0x0F) << 12) | ((b & 0x3F) << 6) | (c & 0x3F));
+            } else {
+                throw new UTFDataFormatException();
             }
         }
 
-        return builder.toString();
+        return new String(chars, 0, count);
+    }
+
+    private void require(int length) throws EOFException {
+        if(limit - position < length)
+            throw new EOFException();
     }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A DataOutput that serializes into a growable byte array. The array is
+ * exposed without copying and can be reused after {@link #reset()}, so it
+ * works as scratch space for serializing records. It is the output
+ * counterpart of {@link DataInputBuffer}.
+ *
+ * @author lhchavez
+ */
+public class DataOutputBuffer extends DataOutputStream {
+    private Buffer buffer;
+
+    public DataOutputBuffer() {
+        this(256);
+    }
+
+    public DataOutputBuffer(int size) {
+        this(new Buffer(size));
+    }
+
+    private DataOutputBuffer(Buffer buffer) {
+        super(buffer);
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the backing array. Only the first {@link #getLength()} bytes
+     * are valid, and it might be replaced as the buffer grows.
+     */
+    public byte[] getData() {
+        return buffer.data;
+    }
+
+    public int getLength() {
+        return buffer.length;
+    }
+
+    /**
+     * Empties the buffer, keeping the backing array.
+     */
+    public DataOutputBuffer reset() {
+        buffer.length = 0;
+        written = 0;
+
+        return this;
+    }
+
+    /**
+     * Drops everything after the first length bytes.
+     */
+    public void truncate(int length) {
+        if(length < 0 || length > buffer.length)
+            throw new IndexOutOfBoundsException();
+
+        written -= buffer.length - length;
+        buffer.length = length;
+    }
+
+    /**
+     * Overwrites an int that has already been written, such as a length
+     * prefix that wasn't known beforehand.
+     */
+    public void setInt(int offset, int value) {
+        if(offset < 0 || offset + 4 > buffer.length)
+            throw new IndexOutOfBoundsException();
+
+        byte[] data = buffer.data;
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Copies length bytes straight from the input into the buffer.
+     */
+    public void write(DataInput in, int length) throws IOException {
+        buffer.ensure(length);
+        in.readFully(buffer.data, buffer.length, length);
+        buffer.length += length;
+        written += length;
+    }
+
+    /**
+     * Writes the contents of the buffer to another stream.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer.data, 0, buffer.length);
+    }
+
+    private static class Buffer extends OutputStream {
+        private byte[] data;
+        private int length;
+
+        public Buffer(int size) {
+            data = new byte[Math.max(1, size)];
+            length = 0;
+        }
+
+        /**
+         * Grows the array geometrically so it can take count more bytes.
+         */
+        public void ensure(int count) {
+            if(length + count > data.length)
+                data = Arrays.copyOf(data, Math.max(data.length << 1, length + count));
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            data[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, data, length, len);
+            length += len;
+        }
+    }
+}
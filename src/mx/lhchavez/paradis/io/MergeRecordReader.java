@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package mx.lhchavez.paradis.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges several key-sorted readers into a single key-sorted stream. The
+ * sources must be sorted with the same comparator the merge uses.
+ *
+ * @author lhchavez
+ */
+public class MergeRecordReader<K extends WritableComparable<K>, V extends Writable> implements RecordReader<K, V> {
+    private List<RecordReader<K, V>> sources;
+    private PriorityQueue<RecordReader<K, V>> queue;
+    private RecordReader<K, V> current;
+
+    public MergeRecordReader(List<? extends RecordReader<K, V>> sources) throws IOException {
+        this(sources, null);
+    }
+
+    /**
+     * @param comparator the key order, or null to use compareTo
+     */
+    public MergeRecordReader(List<? extends RecordReader<K, V>> sources, final Comparator<? super K> comparator) throws IOException {
+        this.sources = new ArrayList<RecordReader<K, V>>(sources);
+        this.queue = new PriorityQueue<RecordReader<K, V>>(Math.max(1, sources.size()), new Comparator<RecordReader<K, V>>() {
+            public int compare(RecordReader<K, V> a, RecordReader<K, V> b) {
+                if(comparator != null)
+                    return comparator.compare(a.getCurrentKey(), b.getCurrentKey());
+
+                return a.getCurrentKey().compareTo(b.getCurrentKey());
+            }
+        });
+        this.current = null;
+
+        for(RecordReader<K, V> source : this.sources) {
+            if(source.nextKeyValue())
+                queue.add(source);
+        }
+    }
+
+    public boolean nextKeyValue() throws IOException {
+        if(current != null && current.nextKeyValue())
+            queue.add(current);
+
+        current = queue.poll();
+
+        return current != null;
+    }
+
+    public K getCurrentKey() {
+        return current.getCurrentKey();
+    }
+
+    public V getCurrentValue() {
+        return current.getCurrentValue();
+    }
+
+    public float getProgress() {
+        if(sources.isEmpty()) return 1;
+
+        float total = 0;
+        for(RecordReader<K, V> source : sources) {
+            total += source.getProgress();
+        }
+
+        return total / sources.size();
+    }
+
+    public void close() throws IOException {
+        for(RecordReader<K, V> source : sources) {
+            source.close();
+        }
+    }
+}
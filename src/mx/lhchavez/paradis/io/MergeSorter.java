@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package mx.lhchavez.paradis.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Sorts records by key using a bounded amount of memory. Records are kept
+ * serialized in a buffer; whenever the buffer goes over the memory limit it
+ * is sorted and spilled to disk as a run. {@link #merge()} returns a reader
+ * that does a k-way merge of all the runs. Keys in the buffer are compared
+ * in their serialized form, so sorting doesn't allocate any objects.
+ *
+ * @author lhchavez
+ */
+public class MergeSorter<K extends WritableComparable<K>, V extends Writable> implements RecordWriter<K, V> {
+    private Class<? extends K> keyClass;
+    private Class<? extends V> valueClass;
+    private WritableFactory<? extends K> keyFactory;
+    private WritableFactory<? extends V> valueFactory;
+    private RawComparator<K> comparator;
+    private File spillDirectory;
+    private long memoryLimit;
+    private int mergeFactor;
+
+    private DataOutputBuffer buffer;
+    private int[] offsets;
+    private int recordCount;
+
+    private ArrayList<File> runs;
+    private HashSet<File> inputs;
+    private int runCount;
+
+    public MergeSorter(Class<? extends K> keyClass, Class<? extends V> valueClass, RawComparator<K> comparator, File spillDirectory, long memoryLimit, int mergeFactor) throws IOException {
+        this.keyClass = keyClass;
+        this.valueClass = valueClass;
+        this.keyFactory = WritableFactory.get(keyClass);
+        this.valueFactory = WritableFactory.get(valueClass);
+        this.comparator = comparator;
+        this.spillDirectory = spillDirectory;
+        this.memoryLimit = memoryLimit;
+        this.mergeFactor = Math.max(2, mergeFactor);
+
+        buffer = new DataOutputBuffer(64 * 1024);
+        offsets = new int[1024];
+        recordCount = 0;
+
+        runs = new ArrayList<File>();
+        inputs = new HashSet<File>();
+        runCount = 0;
+
+        spillDirectory.mkdirs();
+    }
+
+    public void write(K k, V v) throws IOException {
+        int start = buffer.getLength();
+
+        buffer.writeInt(0);
+        k.write(buffer);
+        buffer.setInt(start, buffer.getLength() - start - 4);
+
+        int valueStart = buffer.getLength();
+
+        buffer.writeInt(0);
+        v.write(buffer);
+        buffer.setInt(valueStart, buffer.getLength() - valueStart - 4);
+
+        if(recordCount == offsets.length)
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        offsets[recordCount++] = start;
+
+        if(buffer.getLength() + 4L * recordCount >= memoryLimit)
+            spill();
+    }
+
+    /**
+     * Adds a record stream that is already sorted by key, so it gets merged
+     * along with the rest without going through the buffer. The file is not
+     * deleted once it has been merged.
+     */
+    public void addRun(File run) {
+        runs.add(run);
+        inputs.add(run);
+    }
+
+    /**
+     * Sorts whatever is left in memory and returns a reader over every record
+     * written so far, in key order. Closing the reader removes the runs. The
+     * key and value it returns are reused from one record to the next.
+     */
+    public RecordReader<K, V> merge() throws IOException {
+        sort();
+
+        while(runs.size() > mergeFactor) {
+            List<File> group = new ArrayList<File>(runs.subList(0, mergeFactor));
+            runs.subList(0, mergeFactor).clear();
+
+            ArrayList<RecordReader<K, V>> sources = new ArrayList<RecordReader<K, V>>();
+            for(File run : group) {
+                sources.add(reader(run));
+            }
+
+            MergeRecordReader<K, V> merger = new MergeRecordReader<K, V>(sources, comparator);
+            StreamRecordWriter<K, V> writer = new StreamRecordWriter<K, V>();
+            File run = nextRun();
+            writer.setOutput(new RandomAccessFile(run, "rw"));
+
+            while(merger.nextKeyValue()) {
+                writer.write(merger.getCurrentKey(), merger.getCurrentValue());
+            }
+
+            writer.close();
+            merger.close();
+
+            for(File f : group) {
+                delete(f);
+            }
+            runs.add(run);
+        }
+
+        ArrayList<RecordReader<K, V>> sources = new ArrayList<RecordReader<K, V>>();
+        for(File run : runs) {
+            sources.add(reader(run));
+        }
+        if(recordCount > 0)
+            sources.add(new BufferRecordReader());
+
+        final List<File> mergedRuns = new ArrayList<File>(runs);
+        runs.clear();
+
+        return new MergeRecordReader<K, V>(sources, comparator) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+
+                for(File f : mergedRuns) {
+                    delete(f);
+                }
+            }
+        };
+    }
+
+    public void close() throws IOException {
+        buffer.close();
+
+        for(File f : runs) {
+            delete(f);
+        }
+        runs.clear();
+    }
+
+    private StreamRecordReader<K, V> reader(File run) throws IOException {
+        StreamRecordReader<K, V> reader = new StreamRecordReader<K, V>(new FileInputStream(run), keyClass, valueClass);
+        reader.setReuse(true);
+
+        return reader;
+    }
+
+    private void delete(File run) {
+        if(!inputs.contains(run))
+            run.delete();
+    }
+
+    private void spill() throws IOException {
+        sort();
+
+        File run = nextRun();
+        StreamRecordWriter<K, V> writer = new StreamRecordWriter<K, V>();
+        writer.setOutput(new RandomAccessFile(run, "rw"));
+
+        byte[] data = buffer.getData();
+        for(int i = 0; i < recordCount; i++) {
+            writer.append(data, offsets[i], recordLength(offsets[i]));
+        }
+
+        writer.close();
+        runs.add(run);
+
+        buffer.reset();
+        recordCount = 0;
+    }
+
+    private File nextRun() {
+        File run = new File(spillDirectory.getAbsolutePath() + File.separator + "run" + (runCount++));
+
+        // don't let a leftover run from an earlier attempt leak into this one
+        run.delete();
+
+        return run;
+    }
+
+    private int recordLength(int offset) {
+        byte[] data = buffer.getData();
+        int keyLength = WritableComparator.readInt(data, offset);
+        int valueLength = WritableComparator.readInt(data, offset + 4 + keyLength);
+
+        return 8 + keyLength + valueLength;
+    }
+
+    private int compare(int a, int b) {
+        byte[] data = buffer.getData();
+
+        return comparator.compare(data, a + 4, WritableComparator.readInt(data, a), data, b + 4, WritableComparator.readInt(data, b));
+    }
+
+    private void sort() {
+        sort(0, recordCount - 1);
+    }
+
+    private void sort(int lo, int hi) {
+        while(hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+
+            // median of three, so already sorted runs don't go quadratic
+            if(compare(offsets[mid], offsets[lo]) < 0) swap(mid, lo);
+            if(compare(offsets[hi], offsets[lo]) < 0) swap(hi, lo);
+            if(compare(offsets[hi], offsets[mid]) < 0) swap(hi, mid);
+
+            int pivot = offsets[mid];
+            int i = lo, j = hi;
+
+            while(i <= j) {
+                while(compare(offsets[i], pivot) < 0) i++;
+                while(compare(offsets[j], pivot) > 0) j--;
+
+                if(i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            // recurse into the smaller half to bound the stack depth
+            if(j - lo < hi - i) {
+                sort(lo, j);
+                lo = i;
+            } else {
+                sort(i, hi);
+                hi = j;
+            }
+        }
+
+        for(int i = lo + 1; i <= hi; i++) {
+            for(int j = i; j > lo && compare(offsets[j], offsets[j - 1]) < 0; j--) {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int tmp = offsets[i];
+        offsets[i] = offsets[j];
+        offsets[j] = tmp;
+    }
+
+    /**
+     * Iterates over the sorted records that are still in memory.
+     */
+    private class BufferRecordReader implements RecordReader<K, V> {
+        private DataInputBuffer input = new DataInputBuffer();
+        private int position = -1;
+        private K currentKey;
+        private V currentValue;
+
+        public boolean nextKeyValue() throws IOException {
+            if(position + 1 >= recordCount) return false;
+            position++;
+
+            byte[] data = buffer.getData();
+            int offset = offsets[position];
+            int keyLength = WritableComparator.readInt(data, offset);
+            int valueLength = WritableComparator.readInt(data, offset + 4 + keyLength);
+
+            if(currentKey == null) {
+                currentKey = keyFactory.newInstance();
+                currentValue = valueFactory.newInstance();
+            }
+
+            input.reset(data, offset + 4, keyLength);
+            currentKey.readFields(input);
+            input.reset(data, offset + 8 + keyLength, valueLength);
+            currentValue.readFields(input);
+
+            return true;
+        }
+
+        public K getCurrentKey() {
+            return currentKey;
+        }
+
+        public V getCurrentValue() {
+            return currentValue;
+        }
+
+        public float getProgress() {
+            if(recordCount == 0) return 1;
+
+            return (position + 1) / (float) recordCount;
+        }
+
+        public void close() throws IOException {
+            buffer.reset();
+            recordCount = 0;
+        }
+    }
+}
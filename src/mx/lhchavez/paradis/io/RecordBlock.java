@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the blocks of a record stream with the
+ * {@link StreamRecordWriter#BLOCKED} flag, checking their sync marker and
+ * inflating them if the stream is {@link StreamRecordWriter#COMPRESSED}
+ * and verifying them if it is {@link StreamRecordWriter#CHECKSUMMED}.
+ *
+ * @author lhchavez
+ */
+class RecordBlock {
+    private int flags;
+    private byte[] sync;
+    private byte[] marker;
+    private byte[] stored;
+    private byte[] data;
+    private int records;
+    private int length;
+    private int storedLength;
+    private long limit;
+    private DataInputBuffer input;
+    private Inflater inflater;
+    private CRC32 crc;
+
+    public RecordBlock(byte[] sync, int flags) {
+        this.flags = flags;
+        this.sync = sync;
+        this.marker = new byte[StreamRecordWriter.SYNC_LENGTH];
+        this.stored = new byte[0];
+        this.data = new byte[0];
+        this.records = 0;
+        this.limit = Long.MAX_VALUE;
+        this.input = new DataInputBuffer();
+
+        if((flags & StreamRecordWriter.COMPRESSED) != 0)
+            inflater = new Inflater();
+        if((flags & StreamRecordWriter.CHECKSUMMED) != 0)
+            crc = new CRC32();
+    }
+
+    /**
+     * Reads the next block from the input.
+     */
+    public void read(DataInput in) throws IOException {
+        readStored(in);
+
+        if(inflater == null) {
+            input.reset(stored, 0, storedLength);
+            return;
+        }
+
+        if(data.length < length)
+            data = new byte[Math.max(length, data.length * 2)];
+
+        inflater.reset();
+        inflater.setInput(stored, 0, storedLength);
+        try {
+            if(inflater.inflate(data, 0, length) != length || !inflater.finished())
+                throw new IOException("Corrupt compressed block");
+        } catch(DataFormatException ex) {
+            throw new IOException(ex);
+        }
+
+        input.reset(data, 0, length);
+    }
+
+    /**
+     * Reads the next block and checks it, without decoding its records.
+     */
+    public void skip(DataInput in) throws IOException {
+        readStored(in);
+    }
+
+    /**
+     * Sets the largest stored length the next block can have, so a corrupt
+     * header is caught before its length is trusted.
+     */
+    public void setLimit(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return the number of records in the block
+     */
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the length of the last block as it is stored
+     */
+    public int getStoredLength() {
+        return storedLength;
+    }
+
+    /**
+     * @return the records of the block
+     */
+    public DataInputBuffer getInput() {
+        return input;
+    }
+
+    public void close() {
+        if(inflater != null)
+            inflater.end();
+    }
+
+    /**
+     * Reads the header of a block and its bytes as they are stored.
+     */
+    private void readStored(DataInput in) throws IOException {
+        in.readFully(marker);
+        if(!Arrays.equals(marker, sync))
+            throw new ChecksumException("Sync marker mismatch");
+
+        records = in.readInt();
+        storedLength = in.readInt();
+        length = storedLength;
+        if(inflater != null)
+            length = in.readInt();
+        int checksum = 0;
+        if(crc != null)
+            checksum = in.readInt();
+        if(records < 0 || length < 0 || storedLength < 0 || storedLength > limit)
+            throw new ChecksumException("Corrupt block header");
+
+        if(stored.length < storedLength)
+            stored = new byte[Math.max(storedLength, stored.length * 2)];
+        in.readFully(stored, 0, storedLength);
+
+        if(crc != null) {
+            crc.reset();
+            updateInt(crc, flags);
+            updateInt(crc, records);
+            updateInt(crc, storedLength);
+            if(inflater != null)
+                updateInt(crc, length);
+            crc.update(stored, 0, storedLength);
+
+            if((int) crc.getValue() != checksum)
+                throw new ChecksumException("Block checksum mismatch");
+        }
+    }
+
+    /**
+     * Adds an int to a checksum, in the same byte order it has in the
+     * stream.
+     */
+    static void updateInt(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+}
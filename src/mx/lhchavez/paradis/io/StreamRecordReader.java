@@ -16,48 +16,181 @@
 
 package mx.lhchavez.paradis.io;
 
+import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 /**
+ * Reads a record stream written by {@link StreamRecordWriter}. By default
+ * every record gets a fresh key and value; with {@link #setReuse(boolean)}
+ * the same two instances are read into over and over.
  *
  * @author lhchavez
  */
 public class StreamRecordReader<K extends Writable, V extends Writable> implements RecordReader<K, V> {
     private DataInputStream is;
-    private Class<? extends K> keyClass;
-    private Class<? extends V> valueClass;
+    private WritableFactory<? extends K> keyFactory;
+    private WritableFactory<? extends V> valueFactory;
+    private boolean reuse;
     private long recordCount, readCount;
+    private int flags;
 
     private K currentKey;
     private V currentValue;
 
+    private RecordBlock block;
+    private int blockRemaining;
+
     public StreamRecordReader(InputStream is, Class<? extends K> keyClass, Class<? extends V> valueClass) throws IOException {
         this.is = new DataInputStream(is);
-        this.keyClass = keyClass;
-        this.valueClass = valueClass;
+        this.keyFactory = WritableFactory.get(keyClass);
+        this.valueFactory = WritableFactory.get(valueClass);
+        this.reuse = false;
 
         this.is.readInt();
         recordCount = this.is.readInt();
+        flags = 0;
+
+        if(recordCount == StreamRecordWriter.EXTENDED_HEADER) {
+            flags = this.is.readInt();
+            recordCount = this.is.readInt();
+        }
+
+        if((flags & StreamRecordWriter.BLOCKED) != 0) {
+            byte[] sync = new byte[StreamRecordWriter.SYNC_LENGTH];
+            this.is.readFully(sync);
+            block = new RecordBlock(sync, flags);
+        }
+        blockRemaining = 0;
+
         readCount = 0;
     }
 
+    /**
+     * Reads a whole record stream without deserializing its records, which
+     * verifies every block of a {@link StreamRecordWriter#CHECKSUMMED}
+     * stream. The header and the block index, which the checksums don't
+     * cover, are checked against the blocks. Streams without checksums are
+     * not read at all, unless they were required to have them.
+     *
+     * @param required whether the stream must have checksums, so a header
+     * that lost its {@link StreamRecordWriter#CHECKSUMMED} flag is caught
+     * @throws ChecksumException if the stream is corrupt
+     */
+    public static void verify(InputStream input, boolean required) throws IOException {
+        DataInputStream is = new DataInputStream(input);
+
+        int length = is.readInt();
+        long recordCount = is.readInt();
+        int flags = 0;
+
+        if(recordCount == StreamRecordWriter.EXTENDED_HEADER) {
+            flags = is.readInt();
+            recordCount = is.readInt();
+        }
+
+        if((flags & StreamRecordWriter.CHECKSUMMED) == 0) {
+            if(required)
+                throw new ChecksumException("Stream is missing its checksums");
+            return;
+        }
+
+        byte[] sync = new byte[StreamRecordWriter.SYNC_LENGTH];
+        is.readFully(sync);
+        RecordBlock block = new RecordBlock(sync, flags);
+
+        // the offsets are relative to the start of the stream
+        long position = 16 + StreamRecordWriter.SYNC_LENGTH;
+        int blockHeader = StreamRecordWriter.SYNC_LENGTH + 12;
+        if((flags & StreamRecordWriter.COMPRESSED) != 0)
+            blockHeader += 4;
+
+        DataOutputBuffer index = new DataOutputBuffer();
+        long read = 0;
+        int blockCount = 0;
+
+        try {
+            while(read < recordCount) {
+                index.writeLong(position);
+                index.writeLong(read);
+
+                // the header length counts everything but itself
+                block.setLimit(length + 4 - position - blockHeader);
+                block.skip(is);
+                position += blockHeader + block.getStoredLength();
+                read += block.getRecords();
+                blockCount++;
+            }
+        } finally {
+            block.close();
+        }
+
+        if(read != recordCount)
+            throw new ChecksumException("Record count mismatch");
+
+        if(is.readInt() != blockCount)
+            throw new ChecksumException("Block count mismatch");
+        byte[] stored = new byte[index.getLength()];
+        is.readFully(stored);
+        if(WritableComparator.compareBytes(stored, 0, stored.length, index.getData(), 0, index.getLength()) != 0)
+            throw new ChecksumException("Block index mismatch");
+        if(is.readLong() != position)
+            throw new ChecksumException("Block index offset mismatch");
+
+        // the length in the header doesn't count itself
+        if(length != position + stored.length + 8)
+            throw new ChecksumException("Stream length mismatch");
+    }
+
+    /**
+     * @return the header flags of this stream
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return whether the records in this stream are sorted by key
+     */
+    public boolean isSorted() {
+        return (flags & StreamRecordWriter.SORTED) != 0;
+    }
+
+    /**
+     * Makes the reader deserialize every record into the same key and value
+     * instances, so they are only valid until the next call to
+     * {@link #nextKeyValue()}. Callers that keep references to them must
+     * not turn this on.
+     */
+    public void setReuse(boolean reuse) {
+        this.reuse = reuse;
+    }
+
     public boolean nextKeyValue() throws IOException {
         if(readCount == recordCount) return false;
 
-        try {
-            currentKey = keyClass.newInstance();
-            currentValue = valueClass.newInstance();
-        } catch(Exception ex) {
-            return false;
+        if(!reuse || currentKey == null) {
+            currentKey = keyFactory.newInstance();
+            currentValue = valueFactory.newInstance();
         }
 
-        is.readInt();
-        currentKey.readFields(is);
-        is.readInt();
-        currentValue.readFields(is);
+        DataInput in = is;
+        if(block != null) {
+            if(blockRemaining == 0) {
+                block.read(is);
+                blockRemaining = block.getRecords();
+            }
+
+            in = block.getInput();
+            blockRemaining--;
+        }
+
+        readLength(in);
+        currentKey.readFields(in);
+        readLength(in);
+        currentValue.readFields(in);
 
         readCount++;
 
@@ -65,6 +198,8 @@ public class StreamRecordReader<K extends Writable, V extends Writable> implemen
     }
 
     public void close() throws IOException {
+        if(block != null)
+            block.close();
         is.close();
     }
 
@@ -81,4 +216,11 @@ public class StreamRecordReader<K extends Writable, V extends Writable> implemen
         
         return readCount / (float) recordCount;
     }
+
+    private int readLength(DataInput in) throws IOException {
+        if((flags & StreamRecordWriter.VINT_LENGTHS) != 0)
+            return WritableUtils.readVInt(in);
+
+        return in.readInt();
+    }
 }
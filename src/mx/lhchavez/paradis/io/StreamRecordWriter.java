@@ -18,67 +18,349 @@ package mx.lhchavez.paradis.io;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 /**
+ * Writes a record stream: a header with the stream length and the record
+ * count, followed by length-prefixed keys and values. Streams that carry
+ * flags use an extended header, where the record count is replaced by
+ * {@link #EXTENDED_HEADER} and followed by the flags and the real count.
+ * Records are buffered in memory and written in large chunks; nothing is
+ * guaranteed to be in the file until {@link #close()}, which also fills in
+ * the header.
+ *
+ * With the {@link #BLOCKED} flag, the header is followed by a random sync
+ * marker, and the records are grouped in blocks of roughly the block size.
+ * Every block starts with the sync marker, its record count and its length
+ * in bytes. After the last block comes the block index: the block count,
+ * the offset and the number of the first record of each block, and finally
+ * the offset of the index itself. Offsets are relative to the start of the
+ * stream. {@link BlockRecordReader} uses the index to seek.
+ *
+ * The {@link #COMPRESSED} flag implies {@link #BLOCKED}. The records of
+ * every block are deflated on their own, and the block header also carries
+ * their uncompressed length.
+ *
+ * The {@link #CHECKSUMMED} flag also implies {@link #BLOCKED}. The block
+ * header ends with a CRC32 of the stream flags, the rest of the block
+ * header and the block's bytes as they are stored. Readers throw a
+ * {@link ChecksumException} when it doesn't match.
+ *
+ * With the {@link #VINT_LENGTHS} flag, the key and value length prefixes
+ * are written as variable-length integers (see {@link WritableUtils})
+ * instead of 4-byte ints.
  *
  * @author lhchavez
  */
 public class StreamRecordWriter<K extends Writable, V extends Writable> implements RecordWriter<K,V>{
+    public static final int EXTENDED_HEADER = -1;
+
+    /**
+     * The records in the stream are sorted by key.
+     */
+    public static final int SORTED = 0x01;
+
+    /**
+     * The records in the stream are grouped in indexed blocks.
+     */
+    public static final int BLOCKED = 0x02;
+
+    /**
+     * The blocks of the stream are compressed with a {@link Deflater}.
+     */
+    public static final int COMPRESSED = 0x04;
+
+    /**
+     * The blocks of the stream carry a CRC32 checksum.
+     */
+    public static final int CHECKSUMMED = 0x08;
+
+    /**
+     * The length prefixes of the records are variable-length integers.
+     */
+    public static final int VINT_LENGTHS = 0x10;
+
+    public static final int SYNC_LENGTH = 16;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Random random = new Random();
+
     private RandomAccessFile output;
+    private FileChannel channel;
     private boolean closed;
     private long startPtr;
+    private long position;
     private long recordCount;
+    private int flags;
+    private DataOutputBuffer buffer;
+    private DataOutputBuffer record;
+
+    private int blockSize;
+    private byte[] sync;
+    private int blockStart;
+    private int blockRecords;
+    private int blockCount;
+    private DataOutputBuffer index;
+    private Deflater deflater;
+    private byte[] compressed;
+    private CRC32 crc;
 
     public StreamRecordWriter() {
         closed = true;
+        flags = 0;
+        buffer = new DataOutputBuffer(BUFFER_SIZE);
+        record = new DataOutputBuffer();
+        blockSize = BUFFER_SIZE;
+        sync = new byte[SYNC_LENGTH];
+        index = new DataOutputBuffer();
+        compressed = new byte[0];
+        crc = new CRC32();
+    }
+
+    /**
+     * Sets the header flags of the streams written from now on. Must be
+     * called before {@link #setOutput(RandomAccessFile)}.
+     */
+    public void setFlags(int flags) {
+        if((flags & (COMPRESSED | CHECKSUMMED)) != 0)
+            flags |= BLOCKED;
+
+        this.flags = flags;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Sets the number of bytes after which a block is closed, for streams
+     * with the {@link #BLOCKED} flag.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = Math.max(1, blockSize);
     }
 
     public void setOutput(RandomAccessFile randomAccessFile) throws IOException {
         if(!closed)
             this.output.close();
         this.output = randomAccessFile;
+        this.channel = output.getChannel();
 
         startPtr = output.getFilePointer();
+        position = 0;
 
-        output.writeInt(0);
-        output.writeInt(0);
+        // the header is filled in by close()
+        buffer.reset();
+        buffer.writeInt(0);
+        buffer.writeInt(0);
+        if(flags != 0) {
+            buffer.writeInt(0);
+            buffer.writeInt(0);
+        }
+
+        if((flags & BLOCKED) != 0) {
+            synchronized(random) {
+                random.nextBytes(sync);
+            }
+            buffer.write(sync);
+
+            index.reset();
+            blockCount = 0;
+            blockStart = -1;
+        }
+
+        if((flags & COMPRESSED) != 0 && deflater == null)
+            deflater = new Deflater();
 
         recordCount = 0;
         closed = false;
     }
 
     public void close() throws IOException {
-        long curPtr = output.getFilePointer();
-        output.seek(startPtr);
-        output.writeInt((int) (curPtr - startPtr - 4));
-        output.writeInt((int) recordCount);
+        if((flags & BLOCKED) != 0) {
+            if(blockStart != -1)
+                finishBlock();
+
+            long indexOffset = position + buffer.getLength();
+            buffer.writeInt(blockCount);
+            index.writeTo(buffer);
+            buffer.writeLong(indexOffset);
+        }
 
-        output.seek(curPtr);
+        flush();
+
+        long curPtr = channel.position();
+
+        buffer.writeInt((int) (curPtr - startPtr - 4));
+        if(flags != 0) {
+            buffer.writeInt(EXTENDED_HEADER);
+            buffer.writeInt(flags);
+        }
+        buffer.writeInt((int) recordCount);
+
+        channel.position(startPtr);
+        flush();
+
+        channel.position(curPtr);
         output.close();
 
+        if(deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+
         closed = true;
     }
 
     public void write(K k, V v) throws IOException {
-        long lenPtr, curPtr;
-
-        lenPtr = output.getFilePointer();
-        output.writeInt(0);
-        k.write(output);
-        curPtr = output.getFilePointer();
-        output.seek(lenPtr);
-        output.writeInt((int) (curPtr - lenPtr - 4));
-        output.seek(curPtr);
-
-        lenPtr = output.getFilePointer();
-        output.writeInt(0);
-        v.write(output);
-        curPtr = output.getFilePointer();
-        output.seek(lenPtr);
-        output.writeInt((int) (curPtr - lenPtr - 4));
-        output.seek(curPtr);
+        if((flags & BLOCKED) != 0 && blockStart == -1)
+            startBlock();
+
+        if((flags & VINT_LENGTHS) != 0) {
+            // the size of the prefix depends on the length, so the record
+            // has to be serialized on its own first
+            record.reset();
+            k.write(record);
+            int keyLength = record.getLength();
+            v.write(record);
+
+            writeRecord(record.getData(), 0, keyLength, keyLength, record.getLength() - keyLength);
+            recordWritten();
+            return;
+        }
 
+        // records are serialized into the buffer, so their lengths can be
+        // patched in memory and the file only sees large writes
+        int start = buffer.getLength();
+
+        buffer.writeInt(0);
+        k.write(buffer);
+        int valueStart = buffer.getLength();
+        buffer.setInt(start, valueStart - start - 4);
+
+        buffer.writeInt(0);
+        v.write(buffer);
+        buffer.setInt(valueStart, buffer.getLength() - valueStart - 4);
+
+        recordWritten();
+    }
+
+    /**
+     * Appends a record that has already been serialized with 4-byte length
+     * prefixes (length-prefixed key followed by length-prefixed value).
+     */
+    public void append(byte[] record, int offset, int length) throws IOException {
+        if((flags & BLOCKED) != 0 && blockStart == -1)
+            startBlock();
+
+        if((flags & VINT_LENGTHS) != 0) {
+            int keyLength = WritableComparator.readInt(record, offset);
+            int valueLength = WritableComparator.readInt(record, offset + 4 + keyLength);
+
+            writeRecord(record, offset + 4, keyLength, offset + 8 + keyLength, valueLength);
+        } else {
+            buffer.write(record, offset, length);
+        }
+
+        recordWritten();
+    }
+
+    private void writeRecord(byte[] data, int keyOffset, int keyLength, int valueOffset, int valueLength) throws IOException {
+        WritableUtils.writeVInt(buffer, keyLength);
+        buffer.write(data, keyOffset, keyLength);
+        WritableUtils.writeVInt(buffer, valueLength);
+        buffer.write(data, valueOffset, valueLength);
+    }
+
+    private void recordWritten() throws IOException {
         ++recordCount;
+
+        if((flags & BLOCKED) != 0) {
+            ++blockRecords;
+
+            if(buffer.getLength() - blockStart >= blockSize)
+                finishBlock();
+        } else if(buffer.getLength() >= BUFFER_SIZE) {
+            flush();
+        }
     }
 
+    private void startBlock() throws IOException {
+        blockStart = buffer.getLength();
+        blockRecords = 0;
+
+        index.writeLong(position + blockStart);
+        index.writeLong(recordCount);
+        ++blockCount;
+
+        buffer.write(sync);
+        buffer.writeInt(0);
+        buffer.writeInt(0);
+        if((flags & COMPRESSED) != 0)
+            buffer.writeInt(0);
+        if((flags & CHECKSUMMED) != 0)
+            buffer.writeInt(0);
+    }
+
+    private void finishBlock() throws IOException {
+        int dataStart = blockStart + SYNC_LENGTH + 8;
+        if((flags & COMPRESSED) != 0)
+            dataStart += 4;
+        if((flags & CHECKSUMMED) != 0)
+            dataStart += 4;
+
+        buffer.setInt(blockStart + SYNC_LENGTH, blockRecords);
+
+        if((flags & COMPRESSED) != 0) {
+            int length = buffer.getLength() - dataStart;
+
+            deflater.reset();
+            deflater.setInput(buffer.getData(), dataStart, length);
+            deflater.finish();
+
+            int compressedLength = 0;
+            while(!deflater.finished()) {
+                if(compressedLength == compressed.length)
+                    compressed = Arrays.copyOf(compressed, Math.max(4096, compressed.length * 2));
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+
+            // replace the records with their compressed form
+            buffer.truncate(dataStart);
+            buffer.write(compressed, 0, compressedLength);
+            buffer.setInt(blockStart + SYNC_LENGTH + 4, compressedLength);
+            buffer.setInt(blockStart + SYNC_LENGTH + 8, length);
+        } else {
+            buffer.setInt(blockStart + SYNC_LENGTH + 4, buffer.getLength() - dataStart);
+        }
+
+        if((flags & CHECKSUMMED) != 0) {
+            int headerStart = blockStart + SYNC_LENGTH;
+
+            crc.reset();
+            RecordBlock.updateInt(crc, flags);
+            crc.update(buffer.getData(), headerStart, dataStart - 4 - headerStart);
+            crc.update(buffer.getData(), dataStart, buffer.getLength() - dataStart);
+            buffer.setInt(dataStart - 4, (int) crc.getValue());
+        }
+        blockStart = -1;
+
+        flush();
+    }
+
+    private void flush() throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(buffer.getData(), 0, buffer.getLength());
+
+        while(data.hasRemaining()) {
+            channel.write(data);
+        }
+
+        position += buffer.getLength();
+        buffer.reset();
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The serialization shared by the primitive array Writables: the length as
+ * a VInt, followed by the elements. The elements are converted to and from
+ * bytes in bulk through a per-thread scratch buffer, instead of one call to
+ * the stream per element, so an array costs no more memory than its
+ * elements.
+ *
+ * @author lhchavez
+ */
+abstract class WritableArray implements Writable {
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> chunks = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(CHUNK_SIZE);
+        }
+    };
+
+    protected int length;
+    private int width;
+
+    /**
+     * @param width the size in bytes of an element
+     */
+    protected WritableArray(int width) {
+        this.width = width;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, length);
+
+        ByteBuffer chunk = chunks.get();
+        int perChunk = CHUNK_SIZE / width;
+        for(int i = 0; i < length; i += perChunk) {
+            int n = Math.min(perChunk, length - i);
+
+            chunk.clear();
+            put(chunk, i, n);
+            out.write(chunk.array(), 0, n * width);
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        int newLength = WritableUtils.readVInt(in);
+        if(newLength < 0)
+            throw new IOException("Negative array length");
+
+        reserve(newLength);
+
+        ByteBuffer chunk = chunks.get();
+        int perChunk = CHUNK_SIZE / width;
+        for(int i = 0; i < newLength; i += perChunk) {
+            int n = Math.min(perChunk, newLength - i);
+
+            in.readFully(chunk.array(), 0, n * width);
+            chunk.clear();
+            get(chunk, i, n);
+        }
+
+        length = newLength;
+    }
+
+    /**
+     * Makes room for at least length elements. The current ones don't need
+     * to be kept.
+     */
+    protected abstract void reserve(int length);
+
+    /**
+     * Puts n elements into the chunk, starting at the given one.
+     */
+    protected abstract void put(ByteBuffer chunk, int offset, int n);
+
+    /**
+     * Gets n elements from the chunk, starting at the given one.
+     */
+    protected abstract void get(ByteBuffer chunk, int offset, int n);
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A boolean, serialized as a single byte. False comes before true.
+ *
+ * @author lhchavez
+ */
+public class WritableBoolean implements WritableComparable<WritableBoolean> {
+    private boolean value;
+
+    public WritableBoolean() {
+        this(false);
+    }
+
+    public WritableBoolean(boolean value) {
+        this.value = value;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeBoolean(value);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        value = in.readBoolean();
+    }
+
+    public boolean getValue() {
+        return value;
+    }
+
+    public int compareTo(WritableBoolean o) {
+        if(value == o.value) return 0;
+        return value ? 1 : -1;
+    }
+
+    /**
+     * Compares two serialized WritableBooleans without deserializing them.
+     */
+    public static class Comparator extends WritableComparator<WritableBoolean> {
+        public Comparator() {
+            super(WritableBoolean.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            boolean a = b1[s1] != 0;
+            boolean b = b2[s2] != 0;
+
+            return (a == b) ? 0 : (a ? 1 : -1);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof WritableBoolean)) return false;
+
+        return value == ((WritableBoolean) o).value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value ? 1 : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+
+    static {
+        WritableComparator.define(WritableBoolean.class, new Comparator());
+        WritableFactory.define(WritableBoolean.class, new WritableFactory<WritableBoolean>() {
+            @Override
+            public WritableBoolean newInstance() {
+                return new WritableBoolean();
+            }
+        });
+    }
+}
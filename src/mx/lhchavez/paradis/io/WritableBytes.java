@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A sequence of raw bytes, prefixed by its length as a VInt. Sequences are
+ * ordered by their unsigned bytes, and a shorter sequence comes before any
+ * longer one it is a prefix of.
+ *
+ * @author lhchavez
+ */
+public class WritableBytes implements WritableComparable<WritableBytes> {
+    private byte[] bytes;
+    private int length;
+
+    public WritableBytes() {
+        this(new byte[0]);
+    }
+
+    /**
+     * Wraps the array without copying it.
+     */
+    public WritableBytes(byte[] bytes) {
+        this.bytes = bytes;
+        this.length = bytes.length;
+    }
+
+    /**
+     * Copies bytes into this sequence.
+     */
+    public void set(byte[] data, int start, int length) {
+        if(bytes.length < length)
+            bytes = new byte[length];
+        System.arraycopy(data, start, bytes, 0, length);
+
+        this.length = length;
+    }
+
+    public void set(WritableBytes other) {
+        set(other.bytes, 0, other.length);
+    }
+
+    /**
+     * @return the backing array. Only the first {@link #getLength()} bytes are
+     * valid.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, length);
+        out.write(bytes, 0, length);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        int newLength = WritableUtils.readVInt(in);
+        if(newLength < 0)
+            throw new IOException("Negative byte sequence length");
+
+        if(bytes.length < newLength)
+            bytes = new byte[Math.max(newLength, 16)];
+        in.readFully(bytes, 0, newLength);
+
+        length = newLength;
+    }
+
+    public int compareTo(WritableBytes o) {
+        return WritableComparator.compareBytes(bytes, 0, length, o.bytes, 0, o.length);
+    }
+
+    /**
+     * Compares two serialized WritableBytes without deserializing them.
+     */
+    public static class Comparator extends WritableComparator<WritableBytes> {
+        public Comparator() {
+            super(WritableBytes.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int n1 = WritableUtils.decodeVIntSize(b1, s1);
+            int n2 = WritableUtils.decodeVIntSize(b2, s2);
+
+            return compareBytes(b1, s1 + n1, l1 - n1, b2, s2 + n2, l2 - n2);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof WritableBytes)) return false;
+
+        WritableBytes other = (WritableBytes) o;
+        if(length != other.length) return false;
+
+        for(int i = 0; i < length; i++) {
+            if(bytes[i] != other.bytes[i]) return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for(int i = 0; i < length; i++) {
+            h = 31 * h + bytes[i];
+        }
+
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(2 * length);
+        for(int i = 0; i < length; i++) {
+            sb.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(bytes[i] & 0xf, 16));
+        }
+
+        return sb.toString();
+    }
+
+    static {
+        WritableComparator.define(WritableBytes.class, new Comparator());
+        WritableFactory.define(WritableBytes.class, new WritableFactory<WritableBytes>() {
+            @Override
+            public WritableBytes newInstance() {
+                return new WritableBytes();
+            }
+        });
+    }
+}
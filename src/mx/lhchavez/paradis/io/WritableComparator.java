@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package mx.lhchavez.paradis.io;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link RawComparator} for {@link WritableComparable}s. Writables that
+ * can be compared straight from their serialized form register a comparator
+ * with {@link #define(Class, RawComparator)}, usually from a static
+ * initializer. {@link WritableTuple} subclasses whose fields all have one
+ * get a field by field comparator. Every other class gets a comparator that
+ * deserializes both keys and calls compareTo.
+ *
+ * @author lhchavez
+ */
+public class WritableComparator<T extends WritableComparable<T>> implements RawComparator<T> {
+    private static final Map<Class, RawComparator> comparators = new HashMap<Class, RawComparator>();
+
+    private Class<? extends T> keyClass;
+    private DataInputBuffer buffer;
+    private T key1, key2;
+
+    /**
+     * Registers the raw comparator for a class. Registered comparators are
+     * shared, so they must not keep any state.
+     */
+    public static synchronized void define(Class c, RawComparator comparator) {
+        comparators.put(c, comparator);
+    }
+
+    /**
+     * @return the comparator registered for the class, or a new deserializing
+     * comparator if there is none
+     */
+    public static RawComparator get(Class<? extends WritableComparable> c) {
+        // make sure the class had a chance to register its comparator
+        try {
+            Class.forName(c.getName(), true, c.getClassLoader());
+        } catch(ClassNotFoundException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+
+        RawComparator comparator;
+        synchronized(WritableComparator.class) {
+            comparator = comparators.get(c);
+        }
+
+        // not registered, so a job's tuple classes can still be unloaded
+        if(comparator == null && WritableTuple.class.isAssignableFrom(c))
+            comparator = WritableTuple.rawComparator((Class<? extends WritableTuple>) c);
+
+        if(comparator == null)
+            comparator = new WritableComparator(c, true);
+
+        return comparator;
+    }
+
+    protected WritableComparator(Class<? extends T> keyClass) {
+        this(keyClass, false);
+    }
+
+    protected WritableComparator(Class<? extends T> keyClass, boolean createInstances) {
+        this.keyClass = keyClass;
+
+        if(createInstances) {
+            buffer = new DataInputBuffer();
+            try {
+                WritableFactory<? extends T> factory = WritableFactory.get(keyClass);
+                key1 = factory.newInstance();
+                key2 = factory.newInstance();
+            } catch(Exception ex) {
+                throw new IllegalArgumentException(ex);
+            }
+        }
+    }
+
+    public Class<? extends T> getKeyClass() {
+        return keyClass;
+    }
+
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        try {
+            buffer.reset(b1, s1, l1);
+            key1.readFields(buffer);
+            buffer.reset(b2, s2, l2);
+            key2.readFields(buffer);
+        } catch(IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        return compare(key1, key2);
+    }
+
+    public int compare(T a, T b) {
+        return a.compareTo(b);
+    }
+
+    public static int compareBytes(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        int end1 = s1 + l1, end2 = s2 + l2;
+
+        for(int i = s1, j = s2; i < end1 && j < end2; i++, j++) {
+            int a = b1[i] & 0xff;
+            int b = b2[j] & 0xff;
+
+            if(a != b) return a - b;
+        }
+
+        return l1 - l2;
+    }
+
+    public static int readUnsignedShort(byte[] b, int s) {
+        return ((b[s] & 0xff) << 8) | (b[s + 1] & 0xff);
+    }
+
+    public static int readInt(byte[] b, int s) {
+        return ((b[s] & 0xff) << 24) | ((b[s + 1] & 0xff) << 16) |
+                ((b[s + 2] & 0xff) << 8) | (b[s + 3] & 0xff);
+    }
+
+    public static long readLong(byte[] b, int s) {
+        return ((long) readInt(b, s) << 32) | (readInt(b, s + 4) & 0xffffffffL);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A double, ordered like {@link Double#compare(double, double)}.
+ *
+ * @author lhchavez
+ */
+public class WritableDouble implements WritableComparable<WritableDouble> {
+    private double value;
+
+    public WritableDouble() {
+        this(0);
+    }
+
+    public WritableDouble(double value) {
+        this.value = value;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeDouble(value);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        value = in.readDouble();
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public int compareTo(WritableDouble o) {
+        return Double.compare(value, o.value);
+    }
+
+    /**
+     * Compares two serialized WritableDoubles without deserializing them.
+     */
+    public static class Comparator extends WritableComparator<WritableDouble> {
+        public Comparator() {
+            super(WritableDouble.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            double a = Double.longBitsToDouble(readLong(b1, s1));
+            double b = Double.longBitsToDouble(readLong(b2, s2));
+
+            return Double.compare(a, b);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof WritableDouble)) return false;
+
+        return Double.doubleToLongBits(value) == Double.doubleToLongBits(((WritableDouble) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(value);
+
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+
+    static {
+        WritableComparator.define(WritableDouble.class, new Comparator());
+        WritableFactory.define(WritableDouble.class, new WritableFactory<WritableDouble>() {
+            @Override
+            public WritableDouble newInstance() {
+                return new WritableDouble();
+            }
+        });
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Creates instances of a Writable class. Classes can register a factory
+ * that calls their constructor directly with
+ * {@link #define(Class, WritableFactory)}, usually from a static
+ * initializer, so creating them involves no reflection at all. Every other
+ * class gets a factory that calls its public no-arg constructor, which is
+ * looked up the first time the class is asked for and shared from then on.
+ * Those are only held weakly, so they don't keep the classes of finished
+ * jobs loaded; {@link mx.lhchavez.paradis.util.Configuration} holds on to
+ * the ones of a job while it runs. Constructors are not made accessible,
+ * since tasks run under the client's security manager.
+ *
+ * @author lhchavez
+ */
+public abstract class WritableFactory<T extends Writable> {
+    private static final Map<Class, WritableFactory> factories = new HashMap<Class, WritableFactory>();
+    private static final Map<Class, WeakReference<WritableFactory>> constructors = new WeakHashMap<Class, WeakReference<WritableFactory>>();
+
+    /**
+     * Registers the factory for a class. Registered factories are shared, so
+     * they must not keep any state.
+     */
+    public static synchronized void define(Class c, WritableFactory factory) {
+        factories.put(c, factory);
+    }
+
+    /**
+     * @return the factory registered for the class. Classes without one get
+     * a factory that calls their no-arg constructor through reflection.
+     * @throws IllegalArgumentException if the class has no public no-arg
+     * constructor
+     */
+    public static <T extends Writable> WritableFactory<T> get(Class<? extends T> c) {
+        // make sure the class had a chance to register its factory
+        try {
+            Class.forName(c.getName(), true, c.getClassLoader());
+        } catch(ClassNotFoundException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+
+        synchronized(WritableFactory.class) {
+            WritableFactory<T> factory = factories.get(c);
+            if(factory != null) return factory;
+
+            WeakReference<WritableFactory> ref = constructors.get(c);
+            if(ref != null)
+                factory = ref.get();
+
+            if(factory == null) {
+                factory = new ConstructorFactory<T>(c);
+                constructors.put(c, new WeakReference<WritableFactory>(factory));
+            }
+
+            return factory;
+        }
+    }
+
+    public abstract T newInstance() throws IOException;
+
+    /**
+     * Calls the public no-arg constructor of a class that didn't register a
+     * factory.
+     */
+    private static class ConstructorFactory<T extends Writable> extends WritableFactory<T> {
+        private Constructor<? extends T> constructor;
+
+        public ConstructorFactory(Class<? extends T> c) {
+            try {
+                constructor = c.getConstructor();
+            } catch(NoSuchMethodException ex) {
+                throw new IllegalArgumentException(c.getName() + " has no public no-arg constructor", ex);
+            }
+        }
+
+        @Override
+        public T newInstance() throws IOException {
+            try {
+                return constructor.newInstance();
+            } catch(InvocationTargetException ex) {
+                throw new IOException(ex.getCause());
+            } catch(Exception ex) {
+                throw new IOException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A float, ordered like {@link Float#compare(float, float)}.
+ *
+ * @author lhchavez
+ */
+public class WritableFloat implements WritableComparable<WritableFloat> {
+    private float value;
+
+    public WritableFloat() {
+        this(0);
+    }
+
+    public WritableFloat(float value) {
+        this.value = value;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeFloat(value);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        value = in.readFloat();
+    }
+
+    public float getValue() {
+        return value;
+    }
+
+    public int compareTo(WritableFloat o) {
+        return Float.compare(value, o.value);
+    }
+
+    /**
+     * Compares two serialized WritableFloats without deserializing them.
+     */
+    public static class Comparator extends WritableComparator<WritableFloat> {
+        public Comparator() {
+            super(WritableFloat.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            float a = Float.intBitsToFloat(readInt(b1, s1));
+            float b = Float.intBitsToFloat(readInt(b2, s2));
+
+            return Float.compare(a, b);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof WritableFloat)) return false;
+
+        return Float.floatToIntBits(value) == Float.floatToIntBits(((WritableFloat) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Float.floatToIntBits(value);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+
+    static {
+        WritableComparator.define(WritableFloat.class, new Comparator());
+        WritableFactory.define(WritableFloat.class, new WritableFactory<WritableFloat>() {
+            @Override
+            public WritableFloat newInstance() {
+                return new WritableFloat();
+            }
+        });
+    }
+}
@@ -53,8 +53,47 @@ public class WritableInt implements WritableComparable<WritableInt> {
         return 1;
     }
 
+    /**
+     * Compares two serialized WritableInts without deserializing them.
+     */
+    public static class Comparator extends WritableComparator<WritableInt> {
+        public Comparator() {
+            super(WritableInt.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int a = readInt(b1, s1);
+            int b = readInt(b2, s2);
+
+            return (a < b) ? -1 : ((a == b) ? 0 : 1);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof WritableInt)) return false;
+
+        return value == ((WritableInt) o).value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value;
+    }
+
     @Override
     public String toString() {
         return String.valueOf(value);
     }
+
+    static {
+        WritableComparator.define(WritableInt.class, new Comparator());
+        WritableFactory.define(WritableInt.class, new WritableFactory<WritableInt>() {
+            @Override
+            public WritableInt newInstance() {
+                return new WritableInt();
+            }
+        });
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An array of ints, prefixed by its length as a VInt and serialized in bulk.
+ * The array is wrapped, not copied: the instance takes ownership of any
+ * array handed to its constructor or to set(), and readFields overwrites it
+ * in place whenever it is large enough. Pass a copy if the caller still
+ * needs its contents.
+ *
+ * @author lhchavez
+ */
+public class WritableIntArray extends WritableArray {
+    private int[] values;
+
+    public WritableIntArray() {
+        this(new int[0]);
+    }
+
+    /**
+     * Wraps the array without copying it. The instance owns it from now on,
+     * and readFields may overwrite it.
+     */
+    public WritableIntArray(int[] values) {
+        super(4);
+        set(values, values.length);
+    }
+
+    /**
+     * Wraps the first length elements of the array without copying them.
+     * The instance owns the array from now on, and readFields may overwrite
+     * it.
+     */
+    public void set(int[] values, int length) {
+        this.values = values;
+        this.length = length;
+    }
+
+    /**
+     * @return the backing array. Only the first {@link #getLength()} elements
+     * are valid.
+     */
+    public int[] getValues() {
+        return values;
+    }
+
+    public int get(int i) {
+        if(i >= length)
+            throw new ArrayIndexOutOfBoundsException(i);
+
+        return values[i];
+    }
+
+    @Override
+    protected void reserve(int length) {
+        if(values.length < length)
+            values = new int[length];
+    }
+
+    @Override
+    protected void put(ByteBuffer chunk, int offset, int n) {
+        chunk.asIntBuffer().put(values, offset, n);
+    }
+
+    @Override
+    protected void get(ByteBuffer chunk, int offset, int n) {
+        chunk.asIntBuffer().get(values, offset, n);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof WritableIntArray)) return false;
+
+        WritableIntArray other = (WritableIntArray) o;
+        if(length != other.length) return false;
+
+        for(int i = 0; i < length; i++) {
+            if(values[i] != other.values[i]) return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for(int i = 0; i < length; i++) {
+            h = 31 * h + values[i];
+        }
+
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOf(values, length));
+    }
+
+    static {
+        WritableFactory.define(WritableIntArray.class, new WritableFactory<WritableIntArray>() {
+            @Override
+            public WritableIntArray newInstance() {
+                return new WritableIntArray();
+            }
+        });
+    }
+}
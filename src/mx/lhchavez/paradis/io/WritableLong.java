@@ -53,8 +53,47 @@ public class WritableLong implements WritableComparable<WritableLong> {
         return 1;
     }
 
+    /**
+     * Compares two serialized WritableLongs without deserializing them.
+     */
+    public static class Comparator extends WritableComparator<WritableLong> {
+        public Comparator() {
+            super(WritableLong.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            long a = readLong(b1, s1);
+            long b = readLong(b2, s2);
+
+            return (a < b) ? -1 : ((a == b) ? 0 : 1);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof WritableLong)) return false;
+
+        return value == ((WritableLong) o).value;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (value ^ (value >>> 32));
+    }
+
     @Override
     public String toString() {
         return String.valueOf(value);
     }
+
+    static {
+        WritableComparator.define(WritableLong.class, new Comparator());
+        WritableFactory.define(WritableLong.class, new WritableFactory<WritableLong>() {
+            @Override
+            public WritableLong newInstance() {
+                return new WritableLong();
+            }
+        });
+    }
 }
@@ -21,6 +21,8 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 /**
+ * A string serialized with writeUTF, so it can't be longer than 64 KB once
+ * encoded. {@link WritableText} has no such limit and avoids decoding.
  *
  * @author lhchavez
  */
@@ -51,8 +53,87 @@ public class WritableString implements WritableComparable<WritableString> {
         return value.compareTo(o.value);
     }
 
+    /**
+     * Compares two serialized WritableStrings without deserializing them.
+     * The strings are compared char by char, the same way String.compareTo
+     * does, since modified UTF-8 encodes '\0' as two bytes and a plain byte
+     * comparison would sort it after the rest of ASCII.
+     */
+    public static class Comparator extends WritableComparator<WritableString> {
+        public Comparator() {
+            super(WritableString.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            // skip the length that writeUTF puts in front of the string
+            int i = s1 + 2, end1 = s1 + 2 + readUnsignedShort(b1, s1);
+            int j = s2 + 2, end2 = s2 + 2 + readUnsignedShort(b2, s2);
+
+            while(i < end1 && j < end2) {
+                int c1 = b1[i], c2 = b2[j];
+
+                if(c1 >= 0 && c2 >= 0) {
+                    // both plain ASCII
+                    if(c1 != c2) return c1 - c2;
+                    i++;
+                    j++;
+                    continue;
+                }
+
+                c1 = decode(b1, i);
+                c2 = decode(b2, j);
+                if(c1 != c2) return c1 - c2;
+
+                i += length(b1[i]);
+                j += length(b2[j]);
+            }
+
+            return (end1 - i) - (end2 - j);
+        }
+
+        private static int length(byte b) {
+            if((b & 0x80) == 0) return 1;
+            else if((b & 0xe0) == 0xc0) return 2;
+            return 3;
+        }
+
+        private static int decode(byte[] b, int s) {
+            switch(length(b[s])) {
+                case 1:
+                    return b[s];
+                case 2:
+                    return ((b[s] & 0x1f) << 6) | (b[s + 1] & 0x3f);
+                default:
+                    return ((b[s] & 0x0f) << 12) | ((b[s + 1] & 0x3f) << 6) | (b[s + 2] & 0x3f);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof WritableString)) return false;
+
+        return value.equals(((WritableString) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
     @Override
     public String toString() {
         return value;
     }
+
+    static {
+        WritableComparator.define(WritableString.class, new Comparator());
+        WritableFactory.define(WritableString.class, new WritableFactory<WritableString>() {
+            @Override
+            public WritableString newInstance() {
+                return new WritableString();
+            }
+        });
+    }
 }
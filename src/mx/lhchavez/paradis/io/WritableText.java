@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * A string stored as its UTF-8 bytes, prefixed by their length as a VInt.
+ * Unlike {@link WritableString}, it isn't limited to 64 KB, and it only
+ * decodes the bytes into a String when asked to, so text that is just
+ * passed along is never decoded or encoded. Texts are ordered by their
+ * bytes, which is code point order.
+ *
+ * @author lhchavez
+ */
+public class WritableText implements WritableComparable<WritableText> {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] bytes;
+    private int length;
+    private String value;
+    private int hash;
+
+    public WritableText() {
+        this("");
+    }
+
+    public WritableText(String value) {
+        set(value);
+    }
+
+    public void set(String value) {
+        this.bytes = value.getBytes(UTF8);
+        this.length = bytes.length;
+        this.value = value;
+        this.hash = 0;
+    }
+
+    /**
+     * Copies UTF-8 bytes into this text.
+     */
+    public void set(byte[] utf8, int start, int length) {
+        if(bytes.length < length)
+            bytes = new byte[length];
+        System.arraycopy(utf8, start, bytes, 0, length);
+
+        this.length = length;
+        this.value = null;
+        this.hash = 0;
+    }
+
+    public void set(WritableText other) {
+        set(other.bytes, 0, other.length);
+    }
+
+    /**
+     * @return the UTF-8 bytes. Only the first {@link #getLength()} are valid.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public String getValue() {
+        if(value == null)
+            value = new String(bytes, 0, length, UTF8);
+
+        return value;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, length);
+        out.write(bytes, 0, length);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        int newLength = WritableUtils.readVInt(in);
+        if(newLength < 0)
+            throw new IOException("Negative text length");
+
+        // the array is kept across reads, so reusing a text doesn't
+        // allocate once it is large enough
+        if(bytes.length < newLength)
+            bytes = new byte[Math.max(newLength, 16)];
+        in.readFully(bytes, 0, newLength);
+
+        length = newLength;
+        value = null;
+        hash = 0;
+    }
+
+    public int compareTo(WritableText o) {
+        return WritableComparator.compareBytes(bytes, 0, length, o.bytes, 0, o.length);
+    }
+
+    /**
+     * Compares two serialized WritableTexts byte by byte, without decoding
+     * them.
+     */
+    public static class Comparator extends WritableComparator<WritableText> {
+        public Comparator() {
+            super(WritableText.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int n1 = WritableUtils.decodeVIntSize(b1, s1);
+            int n2 = WritableUtils.decodeVIntSize(b2, s2);
+
+            return compareBytes(b1, s1 + n1, l1 - n1, b2, s2 + n2, l2 - n2);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof WritableText)) return false;
+
+        WritableText other = (WritableText) o;
+        if(length != other.length) return false;
+
+        for(int i = 0; i < length; i++) {
+            if(bytes[i] != other.bytes[i]) return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        if(hash == 0) {
+            int h = 1;
+            for(int i = 0; i < length; i++) {
+                h = 31 * h + bytes[i];
+            }
+            hash = h;
+        }
+
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return getValue();
+    }
+
+    static {
+        WritableComparator.define(WritableText.class, new Comparator());
+        WritableFactory.define(WritableText.class, new WritableFactory<WritableText>() {
+            @Override
+            public WritableText newInstance() {
+                return new WritableText();
+            }
+        });
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A fixed sequence of Writables that is serialized as the fields one after
+ * the other, with no type information or separators. Since the reader has
+ * to know the field types up front, tuples used as keys or values are
+ * declared as subclasses whose no-arg constructor creates the fields:
+ *
+ * <pre>
+ * public class WordCount extends WritableTuple {
+ *     public WordCount() {
+ *         super(new WritableText(), new WritableLong());
+ *     }
+ * }
+ * </pre>
+ *
+ * Tuples are ordered field by field, so every field must be a
+ * {@link WritableComparable} for the tuple to be compared. When every field
+ * is one of the built-in int, long, float, double, boolean, VInt, VLong,
+ * String, Text or Bytes Writables, serialized tuples are compared field by
+ * field with the fields' raw comparators. Any other field makes the sort
+ * deserialize both tuples for every comparison, which is much slower.
+ *
+ * @author lhchavez
+ */
+public class WritableTuple implements WritableComparable<WritableTuple> {
+    // serialized length of the fields that always take the same space
+    private static final Map<Class, Integer> FIXED_LENGTHS = new HashMap<Class, Integer>();
+
+    static {
+        FIXED_LENGTHS.put(WritableInt.class, 4);
+        FIXED_LENGTHS.put(WritableLong.class, 8);
+        FIXED_LENGTHS.put(WritableFloat.class, 4);
+        FIXED_LENGTHS.put(WritableDouble.class, 8);
+        FIXED_LENGTHS.put(WritableBoolean.class, 1);
+    }
+
+    private Writable[] fields;
+
+    public WritableTuple(Writable... fields) {
+        this.fields = fields;
+    }
+
+    public int size() {
+        return fields.length;
+    }
+
+    public Writable get(int i) {
+        return fields[i];
+    }
+
+    public void write(DataOutput out) throws IOException {
+        for(Writable field : fields) {
+            field.write(out);
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        for(Writable field : fields) {
+            field.readFields(in);
+        }
+    }
+
+    public int compareTo(WritableTuple o) {
+        int n = Math.min(fields.length, o.fields.length);
+
+        for(int i = 0; i < n; i++) {
+            int c = ((WritableComparable) fields[i]).compareTo(o.fields[i]);
+            if(c != 0) return c;
+        }
+
+        return fields.length - o.fields.length;
+    }
+
+    /**
+     * @return a comparator that compares serialized tuples of the class
+     * field by field, or null if one of its fields has no raw comparator or
+     * its length can't be told from the serialized form
+     */
+    static RawComparator rawComparator(Class<? extends WritableTuple> c) {
+        WritableTuple prototype;
+        try {
+            prototype = WritableFactory.get(c).newInstance();
+        } catch(Exception ex) {
+            return null;
+        }
+
+        Class[] fieldClasses = new Class[prototype.fields.length];
+        RawComparator[] comparators = new RawComparator[prototype.fields.length];
+
+        for(int i = 0; i < fieldClasses.length; i++) {
+            fieldClasses[i] = prototype.fields[i].getClass();
+            if(!FIXED_LENGTHS.containsKey(fieldClasses[i]) &&
+                    fieldClasses[i] != WritableVInt.class && fieldClasses[i] != WritableVLong.class &&
+                    fieldClasses[i] != WritableString.class && fieldClasses[i] != WritableText.class &&
+                    fieldClasses[i] != WritableBytes.class)
+                return null;
+
+            comparators[i] = WritableComparator.get(fieldClasses[i]);
+        }
+
+        return new Comparator(c, fieldClasses, comparators);
+    }
+
+    /**
+     * @return the length of the serialized field of the class that starts
+     * at b[s]. Only valid for the classes accepted by rawComparator.
+     */
+    private static int fieldLength(Class c, byte[] b, int s) {
+        Integer fixed = FIXED_LENGTHS.get(c);
+        if(fixed != null)
+            return fixed;
+
+        if(c == WritableString.class)
+            return 2 + WritableComparator.readUnsignedShort(b, s);
+
+        int n = WritableUtils.decodeVIntSize(b, s);
+        if(c == WritableText.class || c == WritableBytes.class)
+            return n + (int) WritableUtils.readVLong(b, s);
+
+        return n;
+    }
+
+    /**
+     * Compares serialized tuples field by field, skipping each field by its
+     * serialized length. It keeps no state of its own, so it can be shared.
+     */
+    private static class Comparator extends WritableComparator {
+        private Class[] fieldClasses;
+        private RawComparator[] comparators;
+
+        public Comparator(Class<? extends WritableTuple> c, Class[] fieldClasses, RawComparator[] comparators) {
+            super(c);
+            this.fieldClasses = fieldClasses;
+            this.comparators = comparators;
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            for(int i = 0; i < fieldClasses.length; i++) {
+                int n1 = fieldLength(fieldClasses[i], b1, s1);
+                int n2 = fieldLength(fieldClasses[i], b2, s2);
+
+                int c = comparators[i].compare(b1, s1, n1, b2, s2, n2);
+                if(c != 0) return c;
+
+                s1 += n1;
+                s2 += n2;
+            }
+
+            return 0;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof WritableTuple)) return false;
+
+        WritableTuple other = (WritableTuple) o;
+        if(fields.length != other.fields.length) return false;
+
+        for(int i = 0; i < fields.length; i++) {
+            if(!fields[i].equals(other.fields[i])) return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for(Writable field : fields) {
+            h = 31 * h + field.hashCode();
+        }
+
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        for(int i = 0; i < fields.length; i++) {
+            if(i > 0) sb.append(", ");
+            sb.append(fields[i]);
+        }
+
+        return sb.append(')').toString();
+    }
+}
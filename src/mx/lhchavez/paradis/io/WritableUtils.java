@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Variable-length integer encoding. Values are zig-zag encoded, so small
+ * negative numbers stay small, and then written 7 bits at a time, least
+ * significant group first, with the high bit set on every byte but the
+ * last. Values between -64 and 63 take a single byte.
+ *
+ * @author lhchavez
+ */
+public final class WritableUtils {
+    private WritableUtils() {
+    }
+
+    public static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void writeVLong(DataOutput out, long value) throws IOException {
+        long v = zigZagEncode(value);
+
+        while((v & ~0x7fL) != 0) {
+            out.writeByte((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    public static void writeVInt(DataOutput out, int value) throws IOException {
+        writeVLong(out, value);
+    }
+
+    public static long readVLong(DataInput in) throws IOException {
+        long v = 0;
+
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            v |= (long) (b & 0x7f) << shift;
+
+            if((b & 0x80) == 0)
+                return zigZagDecode(v);
+        }
+
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    public static int readVInt(DataInput in) throws IOException {
+        long v = readVLong(in);
+
+        if(v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+            throw new IOException("Variable-length integer out of range: " + v);
+
+        return (int) v;
+    }
+
+    /**
+     * Decodes a variable-length integer straight from a byte array.
+     */
+    public static long readVLong(byte[] b, int s) {
+        long v = 0;
+
+        for(int shift = 0; ; shift += 7) {
+            int x = b[s++];
+            v |= (long) (x & 0x7f) << shift;
+
+            if((x & 0x80) == 0)
+                return zigZagDecode(v);
+        }
+    }
+
+    /**
+     * @return the number of bytes taken by the variable-length integer that
+     * starts at b[s]
+     */
+    public static int decodeVIntSize(byte[] b, int s) {
+        int size = 1;
+
+        while((b[s++] & 0x80) != 0)
+            size++;
+
+        return size;
+    }
+
+    /**
+     * @return the number of bytes writeVLong takes for the value
+     */
+    public static int getVIntSize(long value) {
+        long v = zigZagEncode(value);
+        int size = 1;
+
+        while((v & ~0x7fL) != 0) {
+            v >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A long that is serialized with a variable length, from one byte for values
+ * close to zero up to 10 bytes. See {@link WritableUtils}.
+ *
+ * @author lhchavez
+ */
+public class WritableVLong implements WritableComparable<WritableVLong> {
+    private long value;
+
+    public WritableVLong() {
+        this(0);
+    }
+
+    public WritableVLong(long value) {
+        this.value = value;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVLong(out, value);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        value = WritableUtils.readVLong(in);
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public int compareTo(WritableVLong o) {
+        if(value == o.value) return 0;
+        else if(value < o.value) return -1;
+        return 1;
+    }
+
+    /**
+     * Compares two serialized WritableVLongs without deserializing them.
+     */
+    public static class Comparator extends WritableComparator<WritableVLong> {
+        public Comparator() {
+            super(WritableVLong.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            long a = WritableUtils.readVLong(b1, s1);
+            long b = WritableUtils.readVLong(b2, s2);
+
+            return (a < b) ? -1 : ((a == b) ? 0 : 1);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof WritableVLong)) return false;
+
+        return value == ((WritableVLong) o).value;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+
+    static {
+        WritableComparator.define(WritableVLong.class, new Comparator());
+        WritableFactory.define(WritableVLong.class, new WritableFactory<WritableVLong>() {
+            @Override
+            public WritableVLong newInstance() {
+                return new WritableVLong();
+            }
+        });
+    }
+}
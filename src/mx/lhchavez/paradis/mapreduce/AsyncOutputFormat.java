@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package mx.lhchavez.paradis.mapreduce;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import mx.lhchavez.paradis.io.DataInputBuffer;
+import mx.lhchavez.paradis.io.DataOutputBuffer;
+import mx.lhchavez.paradis.io.Writable;
+import mx.lhchavez.paradis.io.WritableFactory;
+import mx.lhchavez.paradis.util.Configuration;
+
+/**
+ * Hands the reducer output to another OutputFormat from a dedicated writer
+ * thread, so reducing and writing the output overlap. Records go through a
+ * bounded queue: once it is full, write() blocks until the writer catches
+ * up. {@link #finish()} waits until every queued record has been written.
+ *
+ * Records are written after write() returns, and the reducer is free to
+ * reuse its keys and values by then, so Writables are copied before they
+ * are queued. Anything else is queued as it is and must not be modified
+ * once it has been handed over.
+ *
+ * @author lhchavez
+ */
+public class AsyncOutputFormat<K, V> extends OutputFormat<K, V> {
+    private static final Object[] END = new Object[0];
+
+    private OutputFormat<K, V> output;
+    private BlockingQueue<Object[]> queue;
+    private int capacity;
+    private Thread writer;
+    private volatile IOException error;
+
+    private Configuration conf;
+    private DataOutputBuffer copyBuffer;
+    private DataInputBuffer copyInput;
+
+    public AsyncOutputFormat(OutputFormat<K, V> output, int capacity) {
+        this.output = output;
+        this.capacity = Math.max(1, capacity);
+        this.queue = new ArrayBlockingQueue<Object[]>(this.capacity);
+        this.writer = null;
+        this.error = null;
+        this.conf = null;
+        this.copyBuffer = new DataOutputBuffer();
+        this.copyInput = new DataInputBuffer();
+    }
+
+    @Override
+    public void setOutputDirectory(File output) {
+        this.output.setOutputDirectory(output);
+    }
+
+    @Override
+    public void configure(Configuration conf) {
+        this.conf = conf;
+        output.configure(conf);
+    }
+
+    @Override
+    public void write(K k, V v) throws IOException {
+        if(error != null)
+            throw error;
+
+        if(writer == null) {
+            writer = new Thread(new Writer(), "output-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        try {
+            queue.put(new Object[] {copy(k), copy(v)});
+        } catch(InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public void write(K k, V v, OutputStream output) throws IOException {
+        this.output.write(k, v, output);
+    }
+
+    /**
+     * @return the number of records waiting to be written
+     */
+    public int getPendingRecords() {
+        return queue.size();
+    }
+
+    /**
+     * Waits for the writer thread to write every queued record, and then
+     * finishes the underlying output.
+     */
+    @Override
+    public void finish() throws IOException {
+        if(stop())
+            throw new IOException("Interrupted while waiting for the output writer");
+
+        if(error != null)
+            throw error;
+
+        output.finish();
+    }
+
+    /**
+     * Stops the writer thread without writing the records still queued, and
+     * finishes the underlying output. Called instead of finish() when the
+     * reduce fails, so the thread doesn't outlive the task.
+     */
+    public void abort() throws IOException {
+        if(error == null)
+            error = new IOException("Output aborted");
+
+        stop();
+        output.finish();
+    }
+
+    /**
+     * Hands the writer thread the end marker and waits for it to exit, even
+     * if the caller is interrupted meanwhile.
+     *
+     * @return whether the caller was interrupted; the interrupt flag is set
+     * again before returning
+     */
+    private boolean stop() {
+        if(writer == null) return false;
+
+        boolean interrupted = false;
+
+        while(true) {
+            try {
+                queue.put(END);
+                break;
+            } catch(InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+
+        while(writer.isAlive()) {
+            try {
+                writer.join();
+            } catch(InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        writer = null;
+
+        if(interrupted)
+            Thread.currentThread().interrupt();
+
+        return interrupted;
+    }
+
+    public void close() throws IOException {
+        finish();
+        output.close();
+    }
+
+    /**
+     * @return a copy of a Writable, or the object itself otherwise
+     */
+    private Object copy(Object o) throws IOException {
+        if(!(o instanceof Writable)) return o;
+
+        Writable w = (Writable) o;
+        copyBuffer.reset();
+        w.write(copyBuffer);
+        copyInput.reset(copyBuffer.getData(), copyBuffer.getLength());
+
+        WritableFactory<? extends Writable> factory;
+        if(conf != null)
+            factory = conf.getWritableFactory(w.getClass());
+        else
+            factory = WritableFactory.get(w.getClass());
+
+        Writable c = factory.newInstance();
+        c.readFields(copyInput);
+
+        return c;
+    }
+
+    /**
+     * Drains the queue in batches. After an error it keeps draining (and
+     * dropping) records, so the reducer never blocks on a dead writer.
+     */
+    private class Writer implements Runnable {
+        public void run() {
+            ArrayList<Object[]> batch = new ArrayList<Object[]>(capacity);
+
+            while(true) {
+                try {
+                    batch.add(queue.take());
+                } catch(InterruptedException ex) {
+                    // keep draining, the reducer is still putting records
+                    if(error == null)
+                        error = new IOException(ex);
+                    continue;
+                }
+                queue.drainTo(batch);
+
+                for(Object[] record : batch) {
+                    if(record == END)
+                        return;
+
+                    if(error == null) {
+                        try {
+                            output.write((K) record[0], (V) record[1]);
+                        } catch(IOException ex) {
+                            error = ex;
+                        } catch(Throwable ex) {
+                            // anything that escapes would kill the thread
+                            // and leave the reducer blocked on the queue
+                            error = new IOException(ex);
+                        }
+                    }
+                }
+
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package mx.lhchavez.paradis.mapreduce;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import mx.lhchavez.paradis.io.StreamRecordReader;
+import mx.lhchavez.paradis.io.StreamRecordWriter;
+import mx.lhchavez.paradis.io.Writable;
+import mx.lhchavez.paradis.io.WritableComparable;
+import mx.lhchavez.paradis.util.Progress;
+
+/**
+ * Groups records by key in an open-addressing hash table and calls the
+ * reducer once per key, in no particular order. Keys are matched with their
+ * hashCode and equals. When the table goes over the memory limit, its
+ * contents and the rest of the input are split by hash into spill files,
+ * which are then aggregated one by one with a different hash.
+ *
+ * @author lhchavez
+ */
+public class HashAggregator<KEYOUT extends WritableComparable<KEYOUT>, VALUEOUT extends Writable, K, V> {
+    // how many times a spill file is split again before giving up on it
+    private static final int MAX_LEVEL = 3;
+
+    // rough per-record cost of the objects around the serialized data
+    private static final int RECORD_OVERHEAD = 64;
+
+    private Class<? extends KEYOUT> keyClass;
+    private Class<? extends VALUEOUT> valueClass;
+    private File spillDirectory;
+    private long memoryLimit;
+    private int fanout;
+    private Reducer<KEYOUT, VALUEOUT, K, V> reducer;
+    private ReducerContext<K, V> ctx;
+    private int spillCount;
+
+    private Object[] keys;
+    private ArrayList<VALUEOUT>[] values;
+    private int size;
+    private long memory;
+
+    private ByteCounter counter;
+    private DataOutputStream counterOutput;
+
+    public HashAggregator(Class<? extends KEYOUT> keyClass, Class<? extends VALUEOUT> valueClass, File spillDirectory, long memoryLimit, int fanout, Reducer<KEYOUT, VALUEOUT, K, V> reducer, ReducerContext<K, V> ctx) {
+        this.keyClass = keyClass;
+        this.valueClass = valueClass;
+        this.spillDirectory = spillDirectory;
+        this.memoryLimit = memoryLimit;
+        this.fanout = Math.max(2, fanout);
+        this.reducer = reducer;
+        this.ctx = ctx;
+        this.spillCount = 0;
+
+        counter = new ByteCounter();
+        counterOutput = new DataOutputStream(counter);
+
+        clear(1024);
+    }
+
+    /**
+     * Aggregates the inputs and reduces every key.
+     *
+     * @return the spill files that couldn't be split any further, because
+     * most of their records share a key; they still need to be reduced by the
+     * caller, and {@link #close()} deletes them
+     */
+    public List<File> aggregate(File[] inputs, Progress progress) throws IOException {
+        List<File> leftovers = new ArrayList<File>();
+
+        spillDirectory.mkdirs();
+        aggregate(inputs, 0, leftovers, progress);
+
+        return leftovers;
+    }
+
+    /**
+     * Deletes every spill file this aggregator created that is still around,
+     * including the leftovers returned by {@link #aggregate}. Safe to call
+     * after a failed aggregation.
+     */
+    public void close() {
+        for(int i = 0; i < spillCount; i++) {
+            new File(spillDirectory + File.separator + "hash." + i).delete();
+        }
+    }
+
+    private void aggregate(File[] inputs, int level, List<File> leftovers, Progress progress) throws IOException {
+        StreamRecordWriter<KEYOUT, VALUEOUT>[] spills = null;
+        File[] spillFiles = null;
+
+        for(int i = 0; i < inputs.length; i++) {
+            StreamRecordReader<KEYOUT, VALUEOUT> reader = new StreamRecordReader<KEYOUT, VALUEOUT>(new FileInputStream(inputs[i]), keyClass, valueClass);
+
+            while(reader.nextKeyValue()) {
+                KEYOUT key = reader.getCurrentKey();
+                VALUEOUT value = reader.getCurrentValue();
+
+                if(spills != null) {
+                    spills[partition(key, level)].write(key, value);
+                    continue;
+                }
+
+                add(key, value);
+
+                if(memory > memoryLimit) {
+                    // from now on everything goes to disk, split by hash
+                    spillFiles = new File[fanout];
+                    spills = new StreamRecordWriter[fanout];
+
+                    for(int p = 0; p < fanout; p++) {
+                        spillFiles[p] = new File(spillDirectory + File.separator + "hash." + (spillCount++));
+                        spillFiles[p].delete();
+                        spills[p] = new StreamRecordWriter<KEYOUT, VALUEOUT>();
+                        spills[p].setOutput(new RandomAccessFile(spillFiles[p], "rw"));
+                    }
+
+                    for(int slot = 0; slot < keys.length; slot++) {
+                        if(keys[slot] == null) continue;
+
+                        KEYOUT k = (KEYOUT) keys[slot];
+                        StreamRecordWriter<KEYOUT, VALUEOUT> spill = spills[partition(k, level)];
+                        for(VALUEOUT v : values[slot]) {
+                            spill.write(k, v);
+                        }
+                    }
+
+                    clear(1024);
+                }
+            }
+
+            reader.close();
+
+            if(progress != null && level == 0)
+                progress.set((i + 1) / (float) (inputs.length + 1));
+        }
+
+        if(spills == null) {
+            reduce();
+            return;
+        }
+
+        for(StreamRecordWriter<KEYOUT, VALUEOUT> spill : spills) {
+            spill.close();
+        }
+
+        for(File spillFile : spillFiles) {
+            if(level == MAX_LEVEL) {
+                leftovers.add(spillFile);
+                continue;
+            }
+
+            aggregate(new File[] { spillFile }, level + 1, leftovers, null);
+            spillFile.delete();
+        }
+    }
+
+    private void add(KEYOUT key, VALUEOUT value) throws IOException {
+        if((size + 1) * 4L > keys.length * 3L)
+            grow();
+
+        int slot = slot(key);
+
+        if(keys[slot] == null) {
+            keys[slot] = key;
+            values[slot] = new ArrayList<VALUEOUT>();
+            size++;
+
+            memory += sizeOf(key) + RECORD_OVERHEAD;
+        }
+
+        values[slot].add(value);
+        memory += sizeOf(value) + RECORD_OVERHEAD;
+    }
+
+    private int slot(Object key) {
+        int mask = keys.length - 1;
+        int slot = mix(key.hashCode()) & mask;
+
+        while(keys[slot] != null && !keys[slot].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void grow() {
+        Object[] oldKeys = keys;
+        ArrayList<VALUEOUT>[] oldValues = values;
+
+        keys = new Object[oldKeys.length * 2];
+        values = new ArrayList[oldKeys.length * 2];
+
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] == null) continue;
+
+            int slot = slot(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private void clear(int capacity) {
+        keys = new Object[capacity];
+        values = new ArrayList[capacity];
+        size = 0;
+        memory = 0;
+    }
+
+    private void reduce() throws IOException {
+        for(int slot = 0; slot < keys.length; slot++) {
+            if(keys[slot] == null) continue;
+
+            try {
+                reducer.reduce((KEYOUT) keys[slot], values[slot], ctx);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            }
+
+            keys[slot] = null;
+            values[slot] = null;
+        }
+
+        clear(1024);
+    }
+
+    /**
+     * Picks the spill file of a key. Every level uses a different hash, so
+     * keys that ended up together get split apart the next time.
+     */
+    private int partition(KEYOUT key, int level) {
+        int hash = mix(key.hashCode() ^ (0x9e3779b9 * (level + 1)));
+
+        return (hash >>> 1) % fanout;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+
+        return h;
+    }
+
+    private long sizeOf(Writable w) throws IOException {
+        long start = counter.count;
+        w.write(counterOutput);
+
+        return counter.count - start;
+    }
+
+    /**
+     * Throws away everything written to it, keeping only the byte count.
+     */
+    private static class ByteCounter extends OutputStream {
+        public long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package mx.lhchavez.paradis.mapreduce;
+
+import java.io.IOException;
+import mx.lhchavez.paradis.io.DataOutputBuffer;
+import mx.lhchavez.paradis.io.Writable;
+
+/**
+ * The default partitioner. It hashes the serialized form of the key, so it
+ * works for any key class, whether or not it overrides hashCode(). Since it
+ * hashes the whole key, it can't be used with a grouping comparator and more
+ * than one partition.
+ *
+ * @author lhchavez
+ */
+public class HashPartitioner<K extends Writable, V> extends Partitioner<K, V> {
+    private DataOutputBuffer buffer = new DataOutputBuffer();
+
+    @Override
+    public int getPartition(K key, V value, int numPartitions) throws IOException {
+        buffer.reset();
+        key.write(buffer);
+
+        byte[] data = buffer.getData();
+        int length = buffer.getLength();
+        int hash = 1;
+        for(int i = 0; i < length; i++) {
+            hash = 31 * hash + data[i];
+        }
+
+        return (hash & Integer.MAX_VALUE) % numPartitions;
+    }
+}
@@ -39,6 +39,8 @@ public class InputFormatContext<KEYIN extends Writable, VALUEIN extends Writable
         this.conf = conf;
         this.splitCount = 0;
         this.writer = new StreamRecordWriter<KEYIN, VALUEIN>();
+        writer.setFlags(conf.getRecordFlags());
+        writer.setBlockSize(conf.getRecordBlockSize());
         this.inputSplitDirectory = inputSplitDirectory;
         this.closed = true;
     }
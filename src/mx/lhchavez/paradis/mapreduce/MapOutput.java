@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package mx.lhchavez.paradis.mapreduce;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import mx.lhchavez.paradis.io.MergeSorter;
+import mx.lhchavez.paradis.io.RawComparator;
+import mx.lhchavez.paradis.io.RecordReader;
+import mx.lhchavez.paradis.io.RecordWriter;
+import mx.lhchavez.paradis.io.StreamRecordWriter;
+import mx.lhchavez.paradis.io.Writable;
+import mx.lhchavez.paradis.io.WritableComparable;
+import mx.lhchavez.paradis.util.Configuration;
+
+/**
+ * Writes the output of a map task into a record stream. If the job sets
+ * mapper.sort, the records are sorted by key before they are written and the
+ * stream is flagged as sorted, so the tracker only has to merge them.
+ *
+ * @author lhchavez
+ */
+public class MapOutput<K extends WritableComparable<K>, V extends Writable> implements RecordWriter<K, V> {
+    private StreamRecordWriter<K, V> writer;
+    private MergeSorter<K, V> sorter;
+
+    public MapOutput(Configuration conf, File outputFile, File spillDirectory) throws IOException {
+        writer = new StreamRecordWriter<K, V>();
+        sorter = null;
+
+        int flags = conf.getRecordFlags();
+        writer.setBlockSize(conf.getRecordBlockSize());
+
+        if(conf.getBoolean("mapper.sort")) {
+            RawComparator<K> comparator;
+            try {
+                comparator = conf.getSortComparator();
+            } catch(Exception ex) {
+                throw new IOException(ex);
+            }
+
+            sorter = new MergeSorter<K, V>(
+                    (Class<? extends K>) conf.getKeyOutClass(),
+                    (Class<? extends V>) conf.getValueOutClass(),
+                    comparator,
+                    spillDirectory,
+                    conf.getInt("sort.memory", 64) * 1024L * 1024L,
+                    conf.getInt("sort.factor", 64));
+            flags |= StreamRecordWriter.SORTED;
+        }
+        writer.setFlags(flags);
+
+        // a previous attempt might have left a longer file behind
+        outputFile.delete();
+        writer.setOutput(new RandomAccessFile(outputFile, "rw"));
+    }
+
+    public void write(K k, V v) throws IOException {
+        if(sorter != null)
+            sorter.write(k, v);
+        else
+            writer.write(k, v);
+    }
+
+    public void close() throws IOException {
+        if(sorter != null) {
+            RecordReader<K, V> merged = sorter.merge();
+
+            while(merged.nextKeyValue()) {
+                writer.write(merged.getCurrentKey(), merged.getCurrentValue());
+            }
+
+            merged.close();
+            sorter.close();
+        }
+
+        writer.close();
+    }
+}
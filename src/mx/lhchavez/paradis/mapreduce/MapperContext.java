@@ -17,9 +17,17 @@
 package mx.lhchavez.paradis.mapreduce;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import mx.lhchavez.paradis.io.DataInputBuffer;
+import mx.lhchavez.paradis.io.DataOutputBuffer;
 import mx.lhchavez.paradis.io.RecordReader;
 import mx.lhchavez.paradis.io.RecordWriter;
 import mx.lhchavez.paradis.io.Writable;
+import mx.lhchavez.paradis.io.WritableComparable;
 import mx.lhchavez.paradis.util.Configuration;
 import mx.lhchavez.paradis.util.Progress;
 
@@ -28,25 +36,132 @@ import mx.lhchavez.paradis.util.Progress;
  * @author lhchavez
  */
 public class MapperContext<KEYIN extends Writable, VALUEIN extends Writable, KEYOUT extends Writable, VALUEOUT extends Writable> implements RecordWriter<KEYOUT, VALUEOUT> {
+    // rough per-record cost of the objects around the serialized data
+    private static final int RECORD_OVERHEAD = 64;
+
     public Configuration conf;
     public TaskAttemptID taskid;
     private RecordWriter<KEYOUT, VALUEOUT> writer;
     public RecordReader<KEYIN, VALUEIN> reader;
     public Progress progress;
 
-    public MapperContext(Configuration conf, TaskAttemptID taskid, RecordReader<KEYIN, VALUEIN> reader, RecordWriter<KEYOUT, VALUEOUT> writer, Progress progress) {
+    // records waiting to go through the combiner, grouped by key
+    private Reducer combiner;
+    private ReducerContext<KEYOUT, VALUEOUT> combinerContext;
+    private TreeMap<KEYOUT, ArrayList<VALUEOUT>> combinerTable;
+    private long combinerLimit;
+    private long combinerMemory;
+
+    private DataOutputBuffer copyBuffer;
+    private DataInputBuffer copyInput;
+
+    public MapperContext(Configuration conf, TaskAttemptID taskid, RecordReader<KEYIN, VALUEIN> reader, RecordWriter<KEYOUT, VALUEOUT> writer, Progress progress) throws IOException {
         this.conf = conf;
         this.taskid = taskid;
         this.writer = writer;
         this.reader = reader;
         this.progress = progress;
+
+        if(conf.getCombinerClass() != null) {
+            // group the keys the same way the reducers will
+            Comparator<KEYOUT> comparator;
+
+            try {
+                combiner = conf.getCombinerClass().newInstance();
+                comparator = conf.getSortComparator();
+            } catch(Exception ex) {
+                throw new IOException(ex);
+            }
+
+            combinerContext = new ReducerContext<KEYOUT, VALUEOUT>(conf, taskid.getJobID(), new CombinerOutput<KEYOUT, VALUEOUT>(writer));
+            combinerTable = new TreeMap<KEYOUT, ArrayList<VALUEOUT>>(comparator);
+            combinerLimit = conf.getInt("combiner.memory", 16) * 1024L * 1024L;
+            combinerMemory = 0;
+
+            copyBuffer = new DataOutputBuffer();
+            copyInput = new DataInputBuffer();
+        }
     }
 
     public void write(KEYOUT k, VALUEOUT v) throws IOException {
-        writer.write(k, v);
+        if(combiner == null) {
+            writer.write(k, v);
+            return;
+        }
+
+        // mappers are free to reuse their objects, so keep copies around,
+        // and estimate their size from the copy buffer
+        ArrayList<VALUEOUT> values = combinerTable.get(k);
+        if(values == null) {
+            values = new ArrayList<VALUEOUT>();
+            combinerTable.put(copy(k), values);
+            combinerMemory += copyBuffer.getLength() + RECORD_OVERHEAD;
+        }
+        values.add(copy(v));
+        combinerMemory += copyBuffer.getLength() + RECORD_OVERHEAD;
+
+        if(combinerMemory >= combinerLimit)
+            combine();
     }
 
     public void close() throws IOException {
+        if(combiner != null)
+            combine();
+
         writer.close();
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs the combiner over every buffered key and sends the result to the
+     * writer.
+     */
+    private void combine() throws IOException {
+        for(Entry<KEYOUT, ArrayList<VALUEOUT>> e : combinerTable.entrySet()) {
+            try {
+                combiner.reduce((WritableComparable) e.getKey(), e.getValue(), combinerContext);
+            } catch(InterruptedException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        combinerTable.clear();
+        combinerMemory = 0;
+    }
+
+    private <T extends Writable> T copy(T w) throws IOException {
+        copyBuffer.reset();
+        w.write(copyBuffer);
+        copyInput.reset(copyBuffer.getData(), copyBuffer.getLength());
+
+        T c = (T) conf.getWritableFactory(w.getClass()).newInstance();
+        c.readFields(copyInput);
+
+        return c;
+    }
+
+    /**
+     * Sends whatever the combiner emits to the map output instead of the
+     * job's output directory. There are no output files, so records written
+     * for a stream also go to the map output.
+     */
+    private static class CombinerOutput<K extends Writable, V extends Writable> extends OutputFormat<K, V> {
+        private RecordWriter<K, V> writer;
+
+        public CombinerOutput(RecordWriter<K, V> writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(K k, V v) throws IOException {
+            writer.write(k, v);
+        }
+
+        @Override
+        public void write(K k, V v, OutputStream output) throws IOException {
+            writer.write(k, v);
+        }
+
+        public void close() throws IOException {
+        }
+    }
+}
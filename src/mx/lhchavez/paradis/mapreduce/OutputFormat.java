@@ -6,31 +6,160 @@
 package mx.lhchavez.paradis.mapreduce;
 
 import mx.lhchavez.paradis.io.*;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import mx.lhchavez.paradis.util.Configuration;
 
 /**
+ * Writes the reducer output. By default every record goes into its own
+ * %08d.out file. With output.mode=append, records are appended to a single
+ * buffered file instead, which rolls over to the next %08d.out file after
+ * output.roll.bytes bytes or output.roll.records records. Either way, the
+ * records are serialized by {@link #write(Object, Object, OutputStream)}.
+ *
+ * With output.compression set to gzip or deflate, every file is compressed
+ * as it is written and gets a .gz or .deflate suffix. The rolling thresholds
+ * count uncompressed bytes.
+ *
  * @author lhchavez
  */
 public abstract class OutputFormat<K, V> implements RecordWriter<K, V> {
     private File outputDir;
     private long outputCount;
 
+    private String compression;
+    private boolean append;
+    private long rollBytes;
+    private long rollRecords;
+
+    private FileOutputStream file;
+    private DeflaterOutputStream compressor;
+    private RecordOutputStream output;
+    private long fileRecords;
+
     public void setOutputDirectory(File output) {
         this.outputDir = output;
         outputCount = 0;
     }
 
-    public final void write(K k, V v) throws IOException {
-        FileOutputStream output = new FileOutputStream(String.format("%s%s%08d.out", outputDir.getAbsolutePath(), File.separator, outputCount));
-        ++outputCount;
+    /**
+     * Reads the output mode from the job configuration.
+     */
+    public void configure(Configuration conf) {
+        compression = conf.getString("output.compression", "none");
+        if(!compression.equals("none") && !compression.equals("gzip") && !compression.equals("deflate"))
+            throw new IllegalArgumentException("Unknown output compression: " + compression);
+
+        append = "append".equals(conf.getString("output.mode", "file"));
+        rollBytes = Long.parseLong(conf.getString("output.roll.bytes", "0"));
+        rollRecords = Long.parseLong(conf.getString("output.roll.records", "0"));
+    }
+
+    public void write(K k, V v) throws IOException {
+        if(append) {
+            if(output == null) {
+                output = new RecordOutputStream(new BufferedOutputStream(open(), 64 * 1024));
+                fileRecords = 0;
+            }
+
+            write(k, v, output);
+
+            if((rollRecords > 0 && ++fileRecords >= rollRecords) || (rollBytes > 0 && output.count >= rollBytes))
+                finish();
+
+            return;
+        }
+
+        OutputStream output = open();
 
         write(k, v, output);
-        
-        output.close();
+
+        if(compressor != null)
+            compressor.finish();
+        file.close();
+
+        file = null;
+        compressor = null;
+    }
+
+    /**
+     * Flushes and syncs the file that is being appended to, if any. The
+     * framework calls it once the reducer is done; subclasses keep close()
+     * for themselves.
+     */
+    public void finish() throws IOException {
+        if(output == null) return;
+
+        output.flush();
+        if(compressor != null)
+            compressor.finish();
+        file.getFD().sync();
+        file.close();
+
+        output = null;
+        compressor = null;
+        file = null;
+    }
+
+    /**
+     * Opens the next output file, compressed if the job asked for it.
+     */
+    private OutputStream open() throws IOException {
+        String suffix = "";
+        if("gzip".equals(compression))
+            suffix = ".gz";
+        else if("deflate".equals(compression))
+            suffix = ".deflate";
+
+        file = new FileOutputStream(String.format("%s%s%08d.out%s", outputDir.getAbsolutePath(), File.separator, outputCount, suffix));
+        ++outputCount;
+
+        if("gzip".equals(compression))
+            compressor = new GZIPOutputStream(file, 64 * 1024);
+        else if("deflate".equals(compression))
+            compressor = new DeflaterOutputStream(file);
+        else
+            compressor = null;
+
+        if(compressor != null)
+            return compressor;
+
+        return file;
     }
 
     public abstract void write(K k, V v, OutputStream output) throws IOException;
+
+    /**
+     * Counts the bytes written to the current file. Closing it does nothing,
+     * since several records share it.
+     */
+    private static class RecordOutputStream extends FilterOutputStream {
+        public long count = 0;
+
+        public RecordOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package mx.lhchavez.paradis.mapreduce;
+
+import java.io.IOException;
+import mx.lhchavez.paradis.util.Configuration;
+
+/**
+ * Decides which reduce partition a map output record goes to. Every record
+ * with the same key must end up in the same partition.
+ *
+ * @author lhchavez
+ */
+public abstract class Partitioner<K, V> {
+    /**
+     * Called once after the partitioner is created, before any call to
+     * {@link #getPartition(Object, Object, int)}.
+     */
+    public void configure(Configuration conf) throws IOException {
+    }
+
+    /**
+     * @param key the key of the record
+     * @param value the value of the record
+     * @param numPartitions the number of reduce partitions of the job
+     * @return a partition between 0 and numPartitions - 1
+     * @throws IOException
+     */
+    public abstract int getPartition(K key, V value, int numPartitions) throws IOException;
+}
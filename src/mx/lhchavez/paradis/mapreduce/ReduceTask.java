@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package mx.lhchavez.paradis.mapreduce;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import mx.lhchavez.paradis.io.DataInputBuffer;
+import mx.lhchavez.paradis.io.DataOutputBuffer;
+import mx.lhchavez.paradis.io.MergeSorter;
+import mx.lhchavez.paradis.io.RawComparator;
+import mx.lhchavez.paradis.io.RecordReader;
+import mx.lhchavez.paradis.io.StreamRecordReader;
+import mx.lhchavez.paradis.io.Writable;
+import mx.lhchavez.paradis.io.WritableComparable;
+import mx.lhchavez.paradis.util.Configuration;
+import mx.lhchavez.paradis.util.Progress;
+
+/**
+ * Reduces a single partition of a job: sorts and merges the map output
+ * shards of the partition and calls the reducer once per key, writing into
+ * the partition's own output directory.
+ *
+ * @author lhchavez
+ */
+public class ReduceTask<KEYOUT extends WritableComparable<KEYOUT>, VALUEOUT extends Writable, K, V> {
+    private Configuration conf;
+    private String jobID;
+    private int partition;
+
+    public ReduceTask(Configuration conf, String jobID, int partition) {
+        this.conf = conf;
+        this.jobID = jobID;
+        this.partition = partition;
+    }
+
+    public void run(File[] inputs, File outputDirectory, File sortDirectory, long sortMemory, Progress progress) throws InstantiationException, IllegalAccessException, IOException {
+        Class<? extends KEYOUT> keyClass = (Class<? extends KEYOUT>) conf.getKeyOutClass();
+        Class<? extends VALUEOUT> valueClass = (Class<? extends VALUEOUT>) conf.getValueOutClass();
+
+        OutputFormat<K, V> outputFormat = conf.getOutputFormatClass().newInstance();
+        AsyncOutputFormat<K, V> async = null;
+        if(conf.getBoolean("output.async", false)) {
+            async = new AsyncOutputFormat<K, V>(outputFormat, conf.getInt("output.async.queue", 1024));
+            outputFormat = async;
+        }
+        ReducerContext<K, V> ctx = new ReducerContext<K, V>(conf, jobID, outputFormat, partition);
+
+        outputDirectory.mkdirs();
+        outputFormat.setOutputDirectory(outputDirectory);
+        outputFormat.configure(conf);
+
+        HashAggregator<KEYOUT, VALUEOUT, K, V> aggregator = null;
+        boolean finished = false;
+
+        try {
+            Reducer<KEYOUT, VALUEOUT, K, V> reducer = conf.getReducerClass().newInstance();
+
+            if("hash".equals(conf.getString("reduce.mode", "sort"))) {
+                // group in a hash table, and only sort whatever can't be split in
+                // pieces that fit in memory
+                aggregator = new HashAggregator<KEYOUT, VALUEOUT, K, V>(
+                        keyClass, valueClass, sortDirectory, sortMemory, conf.getInt("hash.fanout", 16), reducer, ctx);
+                List<File> leftovers = aggregator.aggregate(inputs, progress);
+
+                if(!leftovers.isEmpty())
+                    reduceSorted(leftovers.toArray(new File[leftovers.size()]), keyClass, valueClass, reducer, ctx, sortDirectory, sortMemory, null);
+            } else {
+                reduceSorted(inputs, keyClass, valueClass, reducer, ctx, sortDirectory, sortMemory, progress);
+            }
+
+            outputFormat.finish();
+            finished = true;
+        } finally {
+            // removes the leftovers, and whatever a failed aggregation spilled
+            if(aggregator != null)
+                aggregator.close();
+
+            if(!finished) {
+                // close the file being appended to and stop the writer
+                // thread, the error is the one that matters
+                try {
+                    if(async != null)
+                        async.abort();
+                    else
+                        outputFormat.finish();
+                } catch(IOException ex) {
+                    Logger.getLogger(ReduceTask.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }
+
+        if(progress != null)
+            progress.set(1.0f);
+    }
+
+    private void reduceSorted(File[] inputs, Class<? extends KEYOUT> keyClass, Class<? extends VALUEOUT> valueClass, Reducer<KEYOUT, VALUEOUT, K, V> reducer, ReducerContext<K, V> ctx, File sortDirectory, long sortMemory, Progress progress) throws InstantiationException, IllegalAccessException, IOException {
+        RawComparator<KEYOUT> comparator = conf.getSortComparator();
+
+        // sort the map outputs with a bounded amount of memory, spilling
+        // sorted runs to disk and merging them back afterwards
+        MergeSorter<KEYOUT, VALUEOUT> sorter = new MergeSorter<KEYOUT, VALUEOUT>(
+                keyClass, valueClass, comparator, sortDirectory, sortMemory, conf.getInt("sort.factor", 64));
+
+        RecordReader<KEYOUT, VALUEOUT> merged = null;
+
+        try {
+            for(File input : inputs) {
+                StreamRecordReader<KEYOUT, VALUEOUT> resultReader = new StreamRecordReader<KEYOUT, VALUEOUT>(new FileInputStream(input), keyClass, valueClass);
+
+                try {
+                    resultReader.setReuse(true);
+
+                    if(resultReader.isSorted()) {
+                        // the client already sorted it, it only needs to be merged
+                        sorter.addRun(input);
+                        continue;
+                    }
+
+                    while(resultReader.nextKeyValue()) {
+                        sorter.write(resultReader.getCurrentKey(), resultReader.getCurrentValue());
+                    }
+                } finally {
+                    resultReader.close();
+                }
+            }
+
+            merged = sorter.merge();
+
+            // with a grouping comparator that is coarser than the sort order, a
+            // group spans several keys and its values arrive in sort order
+            ValueIterable values = new ValueIterable(merged, conf.getGroupingComparator(), conf.getWritableFactory(keyClass).newInstance());
+            long groups = 0;
+
+            while(values.nextKey()) {
+                reduce(reducer, values.getKey(), values, ctx);
+
+                if(progress != null && (++groups & 0x3ff) == 0)
+                    progress.set(merged.getProgress());
+            }
+        } finally {
+            // closing the merged reader deletes the runs it merged
+            if(merged != null)
+                merged.close();
+            sorter.close();
+        }
+    }
+
+    private void reduce(Reducer<KEYOUT, VALUEOUT, K, V> reducer, KEYOUT key, Iterable<VALUEOUT> values, ReducerContext<K, V> ctx) throws IOException {
+        try {
+            reducer.reduce(key, values, ctx);
+        } catch (InterruptedException ex) {
+            // abort the task, but let whoever runs it see the interrupt
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ValueIterableException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Streams the values of one key group straight from the merged input, so
+     * a group never has to fit in memory. It can only be iterated once, and
+     * the key and the values it hands out may be reused afterwards.
+     */
+    private class ValueIterable implements Iterable<VALUEOUT>, Iterator<VALUEOUT> {
+        private RecordReader<KEYOUT, VALUEOUT> input;
+        private Comparator<KEYOUT> comparator;
+        private KEYOUT key;
+        private boolean hasRecord;
+        private boolean inGroup;
+        private boolean pending;
+        private boolean iterated;
+
+        private DataOutputBuffer copyBuffer = new DataOutputBuffer();
+        private DataInputBuffer copyInput = new DataInputBuffer();
+
+        public ValueIterable(RecordReader<KEYOUT, VALUEOUT> input, Comparator<KEYOUT> comparator, KEYOUT key) throws IOException {
+            this.input = input;
+            this.comparator = comparator;
+            this.key = key;
+            this.hasRecord = input.nextKeyValue();
+        }
+
+        /**
+         * Skips whatever is left of the current group and moves on to the
+         * next one.
+         *
+         * @return false if there are no more groups
+         */
+        public boolean nextKey() throws IOException {
+            try {
+                while(hasNext()) next();
+            } catch(ValueIterableException ex) {
+                throw ex.getCause();
+            }
+
+            if(!hasRecord) return false;
+
+            // the reader is free to reuse its key, so keep a copy that
+            // marks the group boundary
+            copyBuffer.reset();
+            input.getCurrentKey().write(copyBuffer);
+            copyInput.reset(copyBuffer.getData(), copyBuffer.getLength());
+            key.readFields(copyInput);
+
+            inGroup = true;
+            pending = true;
+            iterated = false;
+
+            return true;
+        }
+
+        public KEYOUT getKey() {
+            return key;
+        }
+
+        public Iterator<VALUEOUT> iterator() {
+            if(iterated)
+                throw new IllegalStateException("The values of a key can only be iterated once");
+            iterated = true;
+
+            return this;
+        }
+
+        public boolean hasNext() {
+            if(pending) return true;
+            if(!inGroup || !hasRecord) return false;
+
+            try {
+                hasRecord = input.nextKeyValue();
+            } catch(IOException ex) {
+                throw new ValueIterableException(ex);
+            }
+
+            // the group ends at the first record with a different key, which
+            // is left for the next call to nextKey()
+            pending = hasRecord && comparator.compare(key, input.getCurrentKey()) == 0;
+            inGroup = pending;
+
+            return pending;
+        }
+
+        public VALUEOUT next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            pending = false;
+
+            return input.getCurrentValue();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Carries an IOException from the input through the reducer's loop.
+     */
+    private static class ValueIterableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ValueIterableException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -25,6 +25,19 @@ import mx.lhchavez.paradis.io.WritableComparable;
  * @author lhchavez
  */
 public class Reducer<KEYOUT extends WritableComparable, VALUEOUT extends Writable, K, V> {
+    /**
+     * Called once per key with all the values emitted for it. The values are
+     * streamed from the sorted map output, so they can only be iterated once,
+     * and the key and value objects may be reused by the framework: copy them
+     * if they need to outlive the current iteration.
+     *
+     * If the job sets grouping.comparator.class, every key that the grouping
+     * comparator considers equal is reduced in a single call. The key is the
+     * first one of the group, and the values arrive in sort order. With more
+     * than one reduce partition the job must also set a partitioner.class
+     * that sends every key of a group to the same partition, since the
+     * default one hashes the whole key; otherwise the job is rejected.
+     */
     public void reduce(KEYOUT key,
                       Iterable<VALUEOUT> values,
                       ReducerContext<K,V> context)
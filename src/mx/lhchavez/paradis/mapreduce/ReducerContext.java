@@ -26,10 +26,16 @@ public class ReducerContext<K,V> {
     public Configuration conf;
     public String jobid;
     public OutputFormat<K, V> output;
+    public int partition;
 
     public ReducerContext(Configuration conf, String jobid, OutputFormat<K, V> output) {
+        this(conf, jobid, output, 0);
+    }
+
+    public ReducerContext(Configuration conf, String jobid, OutputFormat<K, V> output, int partition) {
         this.conf = conf;
         this.jobid = jobid;
         this.output = output;
+        this.partition = partition;
     }
 }
\ No newline at end of file
@@ -33,7 +33,10 @@ public class TaskAttemptID implements WritableComparable<TaskAttemptID> {
     private long assignTime;
     private byte[] clientId = new byte[32];
     private Status status = Status.Unassigned;
-    public static final int INDEX_LENGTH = 42;
+    private Type type = Type.Map;
+    private int partition;
+    public static final int INDEX_LENGTH = 47;
+    public static final int LEGACY_INDEX_LENGTH = 42;
     private Progress progress;
 
     public static enum Status {
@@ -43,10 +46,21 @@ public class TaskAttemptID implements WritableComparable<TaskAttemptID> {
         Error
     };
 
+    public static enum Type {
+        Map,
+        Reduce
+    };
+
     public TaskAttemptID(String jobID, long taskID, long attemptID) {
+        this(jobID, taskID, attemptID, Type.Map, 0);
+    }
+
+    public TaskAttemptID(String jobID, long taskID, long attemptID, Type type, int partition) {
         this.jobID = jobID;
         this.taskID = taskID;
         this.attemptID = attemptID;
+        this.type = type;
+        this.partition = partition;
         this.assignTime = System.currentTimeMillis();
         this.status = Status.Unassigned;
         this.progress = new Progress();
@@ -77,6 +91,20 @@ public class TaskAttemptID implements WritableComparable<TaskAttemptID> {
         return attemptID;
     }
 
+    /**
+     * @return whether this is a map or a reduce task
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the partition a reduce task works on
+     */
+    public int getPartition() {
+        return partition;
+    }
+
     public void increaseAttempts() {
         this.attemptID++;
     }
@@ -93,12 +121,15 @@ public class TaskAttemptID implements WritableComparable<TaskAttemptID> {
         out.writeUTF(jobID);
         out.writeLong(taskID);
         out.writeByte((int)this.attemptID);
+        out.writeByte(type.ordinal());
+        out.writeInt(partition);
     }
 
     public void readFields(DataInput in) throws IOException {
         this.jobID = in.readUTF();
         this.taskID = in.readLong();
         this.attemptID = in.readByte();
+        readType(in);
     }
 
     public void writeIndex(DataOutput out) throws IOException {
@@ -106,9 +137,22 @@ public class TaskAttemptID implements WritableComparable<TaskAttemptID> {
         out.writeLong(assignTime);
         out.writeByte(status.ordinal());
         out.write(clientId);
+        out.writeByte(type.ordinal());
+        out.writeInt(partition);
     }
 
     public void readIndexFields(DataInput in) throws IOException {
+        readLegacyIndexFields(in);
+        readType(in);
+    }
+
+    /**
+     * Reads an index record written before tasks carried a type and a
+     * partition. Those were always map tasks.
+     */
+    public void readLegacyIndexFields(DataInput in) throws IOException {
+        this.type = Type.Map;
+        this.partition = 0;
         this.attemptID = in.readByte();
         this.assignTime = in.readLong();
         int ordinal = in.readByte();
@@ -129,6 +173,21 @@ public class TaskAttemptID implements WritableComparable<TaskAttemptID> {
         in.readFully(clientId);
     }
 
+    private void readType(DataInput in) throws IOException {
+        int ordinal = in.readByte();
+        switch(ordinal) {
+            case 0:
+                type = Type.Map;
+                break;
+            case 1:
+                type = Type.Reduce;
+                break;
+            default:
+                throw new IOException("Unknown task type " + ordinal);
+        }
+        this.partition = in.readInt();
+    }
+
     /**
      * @return the status
      */
@@ -159,7 +218,7 @@ public class TaskAttemptID implements WritableComparable<TaskAttemptID> {
 
     @Override
     public String toString() {
-        return "TaskAttemptID [job=" + jobID + ", task=" + taskID + ", attempt=" + attemptID + "]";
+        return "TaskAttemptID [job=" + jobID + ", task=" + taskID + ", attempt=" + attemptID + ", type=" + type + "]";
     }
 
     public int compareTo(TaskAttemptID o) {
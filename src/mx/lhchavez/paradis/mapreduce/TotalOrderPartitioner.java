@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package mx.lhchavez.paradis.mapreduce;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+import mx.lhchavez.paradis.io.BlockRecordReader;
+import mx.lhchavez.paradis.io.StreamRecordReader;
+import mx.lhchavez.paradis.io.StreamRecordWriter;
+import mx.lhchavez.paradis.io.Writable;
+import mx.lhchavez.paradis.io.WritableComparable;
+import mx.lhchavez.paradis.io.WritableInt;
+import mx.lhchavez.paradis.util.Configuration;
+
+/**
+ * Partitions keys by range, so that every key in a partition sorts before
+ * every key in the next one and the reduce output is globally ordered. The
+ * split points are read from the job's {@link #PARTITION_FILE}, which the
+ * tracker computes from a {@link Sampler} of the keys.
+ *
+ * @author lhchavez
+ */
+public class TotalOrderPartitioner<K extends WritableComparable<K>, V> extends Partitioner<K, V> {
+    public static final String PARTITION_FILE = "partitions";
+
+    private ArrayList<K> splitPoints;
+    private Comparator<K> comparator;
+
+    @Override
+    public void configure(Configuration conf) throws IOException {
+        splitPoints = new ArrayList<K>();
+
+        try {
+            comparator = conf.getSortComparator();
+        } catch(Exception ex) {
+            throw new IOException(ex);
+        }
+
+        StreamRecordReader<K, WritableInt> reader = new StreamRecordReader<K, WritableInt>(
+                new FileInputStream(conf.getFile(PARTITION_FILE)), (Class<? extends K>) conf.getKeyOutClass(), WritableInt.class);
+
+        while(reader.nextKeyValue()) {
+            splitPoints.add(reader.getCurrentKey());
+        }
+        reader.close();
+    }
+
+    @Override
+    public int getPartition(K key, V value, int numPartitions) throws IOException {
+        // the partition is the number of split points that are <= key
+        int lo = 0, hi = splitPoints.size();
+
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+
+            if(comparator.compare(splitPoints.get(mid), key) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return Math.min(lo, numPartitions - 1);
+    }
+
+    /**
+     * Keeps a uniform random sample of the keys it is given, and turns it
+     * into a partition file.
+     */
+    public static class Sampler<K extends WritableComparable<K>> {
+        private ArrayList<K> samples;
+        private int size;
+        private long seen;
+        private Random random;
+
+        public Sampler(int size) {
+            this.samples = new ArrayList<K>();
+            this.size = Math.max(1, size);
+            this.seen = 0;
+            this.random = new Random(size);
+        }
+
+        /**
+         * Offers a key to the sample. The sampler keeps a reference to it.
+         */
+        public void add(K key) {
+            seen++;
+
+            if(samples.size() < size) {
+                samples.add(key);
+            } else {
+                long slot = (long) (random.nextDouble() * seen);
+                if(slot < size)
+                    samples.set((int) slot, key);
+            }
+        }
+
+        /**
+         * Offers the keys of a record stream file. Streams with the
+         * {@link StreamRecordWriter#BLOCKED} flag are only read at up to
+         * maxBlocks evenly spaced blocks, which are reached through the
+         * block index; other streams are read whole.
+         */
+        public <V extends Writable> void add(File stream, Class<? extends K> keyClass, Class<? extends V> valueClass, int maxBlocks) throws IOException {
+            RandomAccessFile file = new RandomAccessFile(stream, "r");
+            boolean blocked = false;
+
+            if(file.length() >= 12) {
+                file.readInt();
+                blocked = file.readInt() == StreamRecordWriter.EXTENDED_HEADER && (file.readInt() & StreamRecordWriter.BLOCKED) != 0;
+                file.seek(0);
+            }
+
+            if(!blocked) {
+                file.close();
+
+                StreamRecordReader<K, V> reader = new StreamRecordReader<K, V>(new FileInputStream(stream), keyClass, valueClass);
+                while(reader.nextKeyValue()) {
+                    add(reader.getCurrentKey());
+                }
+                reader.close();
+
+                return;
+            }
+
+            BlockRecordReader<K, V> reader = new BlockRecordReader<K, V>(file, keyClass, valueClass);
+            int blocks = reader.getBlockCount();
+            int sampled = Math.min(blocks, Math.max(1, maxBlocks));
+
+            try {
+                for(int i = 0; i < sampled; i++) {
+                    // the range only holds the block that starts at the offset
+                    long offset = reader.getBlockOffset((int) ((long) i * blocks / sampled));
+                    reader.setRange(offset, offset + 1);
+
+                    while(reader.nextKeyValue()) {
+                        add(reader.getCurrentKey());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        /**
+         * Sorts the sample and writes partitions - 1 evenly spaced split
+         * points into the job's partition file.
+         */
+        public void writePartitionFile(Configuration conf, int partitions) throws InstantiationException, IllegalAccessException, IOException {
+            Comparator<K> comparator = conf.getSortComparator();
+            Collections.sort(samples, comparator);
+
+            File partitionFile = conf.getFile(PARTITION_FILE);
+            File partial = conf.getFile(PARTITION_FILE + ".tmp");
+            partial.delete();
+
+            StreamRecordWriter<K, WritableInt> writer = new StreamRecordWriter<K, WritableInt>();
+            writer.setOutput(new RandomAccessFile(partial, "rw"));
+
+            if(!samples.isEmpty()) {
+                for(int i = 1; i < partitions; i++) {
+                    writer.write(samples.get((int) ((long) i * samples.size() / partitions)), new WritableInt(i));
+                }
+            }
+
+            writer.close();
+
+            // the file only shows up once it is complete
+            partitionFile.delete();
+            if(!partial.renameTo(partitionFile))
+                throw new IOException("Unable to write " + partitionFile);
+        }
+    }
+}
@@ -18,13 +18,20 @@ package mx.lhchavez.paradis.server;
 import java.io.*;
 import java.lang.reflect.*;
 import java.util.ArrayList;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import mx.lhchavez.paradis.io.ChecksumException;
 import mx.lhchavez.paradis.io.Writable;
 import mx.lhchavez.paradis.io.WritableComparable;
 import mx.lhchavez.paradis.io.StreamRecordReader;
+import mx.lhchavez.paradis.io.StreamRecordWriter;
 import mx.lhchavez.paradis.mapreduce.*;
 import mx.lhchavez.paradis.util.Configuration;
 import mx.lhchavez.paradis.util.FileUtils;
@@ -42,12 +49,19 @@ public class Job<KEYIN extends Writable, VALUEIN extends Writable, KEYOUT extend
     private File inputDirectory;
     private File outputDirectory;
     private File commitDirectory;
+    private File sortDirectory;
+    private File stagingDirectory;
     private long splitCount;
+    private int partitions;
+    private boolean distributedReduce;
+    private ShardMerger<KEYOUT, VALUEOUT> merger;
+    private boolean totalOrder;
+    private boolean checksums;
+    private File heldDirectory;
+    private long stagingCount;
     public static final long MAX_TASK_ATTEMPTS = 5;
     private Status status = Status.Pending;
     private InputFormat<KEYIN, VALUEIN> inputFormat;
-    private OutputFormat<OUTKEY, OUTVAL> outputFormat;
-    private Reducer<KEYOUT, VALUEOUT, OUTKEY, OUTVAL> reducer;
     private JobIndex index;
     private boolean splitted;
     private JobFinishCallback callback = null;
@@ -70,6 +84,25 @@ public class Job<KEYIN extends Writable, VALUEIN extends Writable, KEYOUT extend
         outputDirectory.mkdir();
         commitDirectory = new File(jobPath + File.separator + "output");
         commitDirectory.mkdir();
+        sortDirectory = new File(jobPath + File.separator + "sort");
+        stagingDirectory = new File(jobPath + File.separator + "staging");
+        stagingCount = 0;
+
+        partitions = Math.max(1, conf.getInt("reduce.partitions", 1));
+        distributedReduce = conf.getBoolean("reduce.distributed");
+        if(conf.getBoolean("merge.incremental", true))
+            merger = new ShardMerger<KEYOUT, VALUEOUT>(conf, partitions, new File(jobPath + File.separator + "merge"));
+        for(int p = 0; p < partitions; p++) {
+            getPartitionDirectory(p).mkdir();
+        }
+
+        // range partitioning needs split points before map outputs can be
+        // partitioned, so until they're known the outputs are held back
+        totalOrder = partitions > 1 && TotalOrderPartitioner.class.getName().equals(conf.getString("partitioner.class"));
+        heldDirectory = new File(jobPath + File.separator + "held");
+        checksums = conf.getBoolean("record.checksums", false);
+        if(totalOrder)
+            heldDirectory.mkdir();
         new File(jobPath + File.separator + "errors").mkdir();
 
         index = new JobIndex(jobID, jobPath);
@@ -85,38 +118,271 @@ public class Job<KEYIN extends Writable, VALUEIN extends Writable, KEYOUT extend
 
             index.build(splitCount);
 
+            if(totalOrder && !conf.getFile(TotalOrderPartitioner.PARTITION_FILE).exists()) {
+                // the input keys are only a good sample if the mappers don't
+                // change them, otherwise the first map outputs are sampled
+                boolean sameKeys = conf.getKeyInClass().equals(conf.getKeyOutClass());
+
+                if(sameKeys && conf.getString("total.order.sample", "input").equals("input"))
+                    sampleInput();
+            }
+
             splitted = true;
         }
     }
 
+    /**
+     * Computes the split points of the total order partitioner from a sample
+     * of the keys in a few of the input splits.
+     */
+    private void sampleInput() throws InstantiationException, IllegalAccessException, IOException {
+        TotalOrderPartitioner.Sampler<KEYOUT> sampler = new TotalOrderPartitioner.Sampler<KEYOUT>(conf.getInt("total.order.samples", 10000));
+        long splits = Math.min(splitCount, conf.getInt("total.order.sample.splits", 10));
+
+        for(long i = 0; i < splits; i++) {
+            File split = new File(inputDirectory + File.separator + (i * splitCount / splits));
+            sampler.add(split, (Class<? extends KEYOUT>) conf.getKeyInClass(), conf.getValueInClass(), conf.getInt("total.order.sample.blocks", 8));
+        }
+
+        sampler.writePartitionFile(conf, partitions);
+    }
+
+    /**
+     * Called with the job locked whenever a map task's output is committed.
+     * Hands the new shards to the merger, and once the total order
+     * partitioner has enough map outputs to sample (or the last map task
+     * finished), partitions the outputs that were held back.
+     */
+    private void mapOutputCommitted(long taskID) throws InstantiationException, IllegalAccessException, IOException {
+        if(!new File(heldDirectory, String.valueOf(taskID)).exists())
+            shardsCommitted(taskID);
+
+        if(!totalOrder) return;
+
+        File[] held = heldDirectory.listFiles();
+        if(held == null || held.length == 0) return;
+
+        Class<? extends KEYOUT> keyClass = (Class<? extends KEYOUT>) conf.getKeyOutClass();
+        Class<? extends VALUEOUT> valueClass = (Class<? extends VALUEOUT>) conf.getValueOutClass();
+
+        if(!conf.getFile(TotalOrderPartitioner.PARTITION_FILE).exists()) {
+            if(held.length < conf.getInt("total.order.sample.tasks", 10) && !index.isJobFinished())
+                return;
+
+            TotalOrderPartitioner.Sampler<KEYOUT> sampler = new TotalOrderPartitioner.Sampler<KEYOUT>(conf.getInt("total.order.samples", 10000));
+
+            for(File f : held) {
+                sampler.add(f, keyClass, valueClass, conf.getInt("total.order.sample.blocks", 8));
+            }
+
+            sampler.writePartitionFile(conf, partitions);
+        }
+
+        for(File f : held) {
+            long heldTaskID = Long.parseLong(f.getName());
+            File[] shards = new File[partitions];
+
+            for(int p = 0; p < partitions; p++) {
+                shards[p] = new File(getPartitionDirectory(p) + File.separator + heldTaskID);
+            }
+
+            splitTaskOutput(new FileInputStream(f), shards);
+            f.delete();
+
+            shardsCommitted(heldTaskID);
+        }
+    }
+
+    private void shardsCommitted(long taskID) {
+        if(merger == null) return;
+
+        for(int p = 0; p < partitions; p++) {
+            merger.add(p, new File(getPartitionDirectory(p) + File.separator + taskID));
+        }
+    }
+
     public void reduce() throws ClassNotFoundException, NoSuchMethodException, InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, IOException {
-        outputFormat = conf.getOutputFormatClass().newInstance();
-        
-        ReducerContext ctx = new ReducerContext(this.getConfiguration(), this.getID(), outputFormat);
+        // the clients already reduced every partition
+        if(distributedReduce) return;
+
+        if(merger != null)
+            merger.finish();
+
+        int threads = Math.max(1, Math.min(partitions, conf.getInt("reduce.threads", Runtime.getRuntime().availableProcessors())));
+
+        // every partition that runs at the same time gets a share of the
+        // sort memory, so the total stays within the budget
+        final long sortMemory = conf.getInt("sort.memory", 64) * 1024L * 1024L / threads;
 
-        TreeMap<KEYOUT, ArrayList<VALUEOUT>> outputMap = new TreeMap<KEYOUT, ArrayList<VALUEOUT>>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Object>> results = new ArrayList<Future<Object>>();
 
-        for(long l = 0; l < splitCount; l++) {
-            StreamRecordReader<KEYOUT, VALUEOUT> resultReader = new StreamRecordReader<KEYOUT, VALUEOUT>(new FileInputStream(outputDirectory.getCanonicalPath() + File.separator + l), (Class<? extends KEYOUT>)conf.getKeyOutClass(), (Class<? extends VALUEOUT>)conf.getValueOutClass());
-            while(resultReader.nextKeyValue()) {
-                if (!outputMap.containsKey(resultReader.getCurrentKey())) {
-                    outputMap.put(resultReader.getCurrentKey(), new ArrayList<VALUEOUT>());
+        for(int p = 0; p < partitions; p++) {
+            final int partition = p;
+            final Progress progress = index.getReducerProgress().addPhase(String.valueOf(p));
+
+            results.add(pool.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    ReduceTask<KEYOUT, VALUEOUT, OUTKEY, OUTVAL> task = new ReduceTask<KEYOUT, VALUEOUT, OUTKEY, OUTVAL>(conf, jobID, partition);
+                    task.run(getPartitionDirectory(partition).listFiles(), getCommitDirectory(partition), new File(sortDirectory + File.separator + partition), sortMemory, progress);
+                    return null;
                 }
+            }));
+        }
 
-                outputMap.get(resultReader.getCurrentKey()).add(resultReader.getCurrentValue());
+        pool.shutdown();
+
+        try {
+            for(Future<Object> result : results) {
+                result.get();
             }
-            resultReader.close();
+        } catch(InterruptedException ex) {
+            throw new IOException(ex);
+        } catch(ExecutionException ex) {
+            Throwable cause = ex.getCause();
+
+            if(cause instanceof IOException)
+                throw (IOException) cause;
+            else if(cause instanceof InstantiationException)
+                throw (InstantiationException) cause;
+            else if(cause instanceof IllegalAccessException)
+                throw (IllegalAccessException) cause;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the map output shards of a partition
+     */
+    public File[] getShards(int partition) {
+        return getPartitionDirectory(partition).listFiles();
+    }
+
+    private File getPartitionDirectory(int partition) {
+        return new File(outputDirectory + File.separator + partition);
+    }
+
+    private File getCommitDirectory(int partition) {
+        // single-partition jobs keep their output at the top level
+        if(partitions == 1)
+            return commitDirectory;
+
+        return new File(commitDirectory + File.separator + partition);
+    }
+
+    /**
+     * Stores the output of a reduce task, a zip archive of the partition's
+     * output files, in the staging directory.
+     *
+     * @return a map from every staged file to its final location
+     */
+    private Map<File, File> stageReduceOutput(int partition, File staging, InputStream taskOutput) throws IOException {
+        Map<File, File> staged = new HashMap<File, File>();
+
+        FileUtils.unzip(taskOutput, staging);
+
+        File commit = getCommitDirectory(partition);
+        commit.mkdirs();
+        for(File f : staging.listFiles()) {
+            staged.put(f, new File(commit, f.getName()));
         }
 
-        outputFormat.setOutputDirectory(commitDirectory);
-        reducer = conf.getReducerClass().newInstance();
+        return staged;
+    }
 
-        for (Entry<KEYOUT, ArrayList<VALUEOUT>> e : outputMap.entrySet()) {
-            try {
-                reducer.reduce(e.getKey(), e.getValue(), ctx);
-            } catch (InterruptedException ex) {
-                Logger.getLogger(Job.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * Stores the output of a map task in the staging directory, split into
+     * one shard per partition.
+     *
+     * @return a map from every staged file to its final location
+     */
+    private Map<File, File> stageTaskOutput(long taskID, File staging, InputStream taskOutput) throws InstantiationException, IllegalAccessException, IOException {
+        Map<File, File> staged = new HashMap<File, File>();
+
+        staging.mkdirs();
+
+        if(partitions == 1) {
+            staged.put(new File(staging, "0"), new File(getPartitionDirectory(0) + File.separator + taskID));
+            copyVerified(taskOutput, new File(staging, "0"));
+            return staged;
+        }
+
+        if(totalOrder && !conf.getFile(TotalOrderPartitioner.PARTITION_FILE).exists()) {
+            // there are no split points yet, keep the whole output around
+            staged.put(new File(staging, "held"), new File(heldDirectory, String.valueOf(taskID)));
+            copyVerified(taskOutput, new File(staging, "held"));
+            return staged;
+        }
+
+        File[] shards = new File[partitions];
+        for(int p = 0; p < partitions; p++) {
+            shards[p] = new File(staging, String.valueOf(p));
+            staged.put(shards[p], new File(getPartitionDirectory(p) + File.separator + taskID));
+        }
+
+        splitTaskOutput(taskOutput, shards);
+
+        return staged;
+    }
+
+    /**
+     * Stores a map output as it is, checking the blocks of a checksummed
+     * stream once it is on disk.
+     */
+    private void copyVerified(InputStream taskOutput, File file) throws IOException {
+        FileUtils.copy(taskOutput, new FileOutputStream(file));
+
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        try {
+            StreamRecordReader.verify(input, checksums);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Splits the output of a map task into one shard per partition. The
+     * blocks of a checksummed output are verified as they are read.
+     */
+    private void splitTaskOutput(InputStream taskOutput, File[] shardFiles) throws InstantiationException, IllegalAccessException, IOException {
+        StreamRecordReader<KEYOUT, VALUEOUT> reader = new StreamRecordReader<KEYOUT, VALUEOUT>(taskOutput, (Class<? extends KEYOUT>)conf.getKeyOutClass(), (Class<? extends VALUEOUT>)conf.getValueOutClass());
+        reader.setReuse(true);
+        if(checksums && (reader.getFlags() & StreamRecordWriter.CHECKSUMMED) == 0) {
+            reader.close();
+            throw new ChecksumException("Map output is missing its checksums");
+        }
+        Partitioner<KEYOUT, VALUEOUT> partitioner = conf.getPartitionerClass().newInstance();
+        StreamRecordWriter<KEYOUT, VALUEOUT>[] shards = new StreamRecordWriter[partitions];
+
+        partitioner.configure(conf);
+
+        try {
+            for(int p = 0; p < partitions; p++) {
+                File shard = shardFiles[p];
+                shard.delete();
+
+                // a subset of a sorted stream is still sorted
+                shards[p] = new StreamRecordWriter<KEYOUT, VALUEOUT>();
+                shards[p].setFlags(reader.getFlags());
+                shards[p].setOutput(new RandomAccessFile(shard, "rw"));
             }
+
+            while(reader.nextKeyValue()) {
+                int p = partitioner.getPartition(reader.getCurrentKey(), reader.getCurrentValue(), partitions);
+
+                if(p < 0 || p >= partitions)
+                    throw new IOException("Partitioner returned " + p + " for a job with " + partitions + " partitions");
+
+                shards[p].write(reader.getCurrentKey(), reader.getCurrentValue());
+            }
+        } finally {
+            for(StreamRecordWriter<KEYOUT, VALUEOUT> shard : shards) {
+                if(shard != null)
+                    shard.close();
+            }
+            reader.close();
         }
     }
 
@@ -132,16 +398,85 @@ public class Job<KEYIN extends Writable, VALUEIN extends Writable, KEYOUT extend
         return jobID;
     }
 
+    /**
+     * @return the indexed task with the given id, or null if there is none
+     */
+    public TaskAttemptID getTask(long taskID) {
+        return index.getTask(taskID);
+    }
+
     public void taskFinished(TaskAttemptID taid, InputStream taskOutput) throws IOException {
         if(!taid.getJobID().equals(getID())) return;
 
-        if (!index.setTaskFinished(taid.getTaskID())) return;
+        TaskAttemptID task = index.getTask(taid.getTaskID());
+        if(task == null || task.getStatus() != TaskAttemptID.Status.Assigned) return;
+
+        // the output is staged first and only moved into place once the task
+        // is marked as finished, so a duplicate upload can't clobber it and a
+        // reduce phase never sees a shard that is still being written
+        File staging;
+        synchronized(this) {
+            staging = new File(stagingDirectory + File.separator + (stagingCount++));
+        }
+
+        Map<File, File> staged;
+        boolean tasksFinished;
+
+        try {
+            if(task.getType() == TaskAttemptID.Type.Reduce)
+                staged = stageReduceOutput(task.getPartition(), staging, taskOutput);
+            else
+                staged = stageTaskOutput(task.getTaskID(), staging, taskOutput);
+
+            synchronized(this) {
+                if (!index.setTaskFinished(taid.getTaskID())) return;
+
+                for(Map.Entry<File, File> entry : staged.entrySet()) {
+                    entry.getValue().delete();
+                    if(!entry.getKey().renameTo(entry.getValue()))
+                        throw new IOException("Unable to commit " + entry.getValue());
+                }
+
+                if(task.getType() == TaskAttemptID.Type.Map)
+                    mapOutputCommitted(task.getTaskID());
+
+                tasksFinished = index.isJobFinished();
+            }
+        } catch(ChecksumException ex) {
+            // the upload got corrupted along the way, so the task is handed
+            // out again instead of poisoning the reduce
+            if(index.setTaskError(taid.getTaskID())) {
+                Logger.getLogger(Job.class.getName()).log(Level.SEVERE, "Task " + task.toString() + " kept uploading corrupt output.", ex);
+                setStatus(Status.Error);
+                storeError(taid, ex);
+
+                if(index.isJobFinished() && callback != null)
+                    callback.JobFinished(this);
+            } else {
+                Logger.getLogger(Job.class.getName()).log(Level.WARNING, "Task " + task.toString() + " uploaded corrupt output, retrying.", ex);
+            }
+            throw ex;
+        } catch(InstantiationException ex) {
+            throw new IOException(ex);
+        } catch(IllegalAccessException ex) {
+            throw new IOException(ex);
+        } finally {
+            FileUtils.delete(staging);
+        }
 
-        Logger.getLogger(Job.class.getName()).log(Level.INFO, "Task " + taid.toString() + " finished.");
+        Logger.getLogger(Job.class.getName()).log(Level.INFO, "Task " + task.toString() + " finished.");
 
-        FileUtils.copy(taskOutput, new FileOutputStream(outputDirectory.getCanonicalPath() + File.separator + taid.getTaskID()));
+        if(tasksFinished && status != Status.Error && distributedReduce && task.getType() == TaskAttemptID.Type.Map) {
+            // once the last map task finishes, the partitions are handed out
+            // as reduce tasks
+            if(merger != null)
+                merger.finish();
 
-        if(index.isJobFinished()) {
+            index.buildReducePhase(partitions);
+            return;
+        }
+
+        if(tasksFinished) {
             setStatus(Status.Finished);
             if(callback != null)
                 callback.JobFinished(this);
@@ -154,20 +489,8 @@ public class Job<KEYIN extends Writable, VALUEIN extends Writable, KEYOUT extend
         if(index.setTaskError(taid.getTaskID())) {
             Logger.getLogger(Job.class.getName()).log(Level.SEVERE, "Task " + taid.toString() + " finished with errors.");
         } else {
-            // let's help the user debug the problem by storing the exception
             setStatus(Status.Error);
-            PrintWriter out = null;
-
-            try {
-                out = new PrintWriter(new FileWriter(jobDirectory.getCanonicalPath() + File.separator + "errors" + File.separator + taid.getTaskID() + "." + taid.getAttemptID()));
-                out.println(ex.getMessage());
-                ex.printStackTrace(out);
-            } catch (IOException exc) {
-                Logger.getLogger(Job.class.getName()).log(Level.SEVERE, "Error", exc);
-            } finally {
-                if(out != null)
-                    out.close();
-            }
+            storeError(taid, ex);
             
             if(index.isJobFinished() && callback != null) {
                 callback.JobFinished(this);
@@ -175,6 +498,25 @@ public class Job<KEYIN extends Writable, VALUEIN extends Writable, KEYOUT extend
         }
     }
 
+    /**
+     * Stores the exception of a failed task attempt in the errors directory,
+     * to help the user debug the problem.
+     */
+    private void storeError(TaskAttemptID taid, Throwable ex) {
+        PrintWriter out = null;
+
+        try {
+            out = new PrintWriter(new FileWriter(jobDirectory.getCanonicalPath() + File.separator + "errors" + File.separator + taid.getTaskID() + "." + taid.getAttemptID()));
+            out.println(ex.getMessage());
+            ex.printStackTrace(out);
+        } catch (IOException exc) {
+            Logger.getLogger(Job.class.getName()).log(Level.SEVERE, "Error", exc);
+        } finally {
+            if(out != null)
+                out.close();
+        }
+    }
+
     /**
      * @return the status
      */
@@ -186,6 +528,9 @@ public class Job<KEYIN extends Writable, VALUEIN extends Writable, KEYOUT extend
      * @param status the status to set
      */
     public void setStatus(Status status) {
+        // a job that failed stays failed, even if the rest of its tasks
+        // finish afterwards
+        if(this.status == Status.Error && status == Status.Finished) return;
         this.status = status;
 
         if(status == Status.Finished || status == Status.Error) {
@@ -209,14 +554,7 @@ public class Job<KEYIN extends Writable, VALUEIN extends Writable, KEYOUT extend
                 continue;
             }
 
-            if(f.isFile()) {
-                f.delete();
-            } else if(f.isDirectory()) {
-                for(File child : f.listFiles()) {
-                    child.delete();
-                }
-                f.delete();
-            }
+            FileUtils.delete(f);
         }
     }
 
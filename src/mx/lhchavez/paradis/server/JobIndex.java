@@ -29,12 +29,24 @@ import mx.lhchavez.paradis.mapreduce.TaskAttemptID;
 import mx.lhchavez.paradis.util.Progress;
 
 /**
+ * The job's task table, persisted to an index file so a restarted tracker can
+ * pick the job up where it left off. The file starts with a magic number and
+ * a version, followed by one fixed-length record per task. Index files
+ * written before the header existed hold the shorter map-only records; they
+ * are read as such and rewritten in the current layout on recovery.
  *
  * @author lhchavez
  */
 public class JobIndex implements Closeable {
+    private static final int INDEX_MAGIC = 0x50445849;
+    private static final byte INDEX_VERSION = 1;
+    private static final int HEADER_LENGTH = 5;
+
     private Queue<TaskAttemptID> pendingTasks;
     private Map<Long, TaskAttemptID> waitingTasks;
+    private Map<Long, TaskAttemptID> tasks;
+    private boolean reducePhase;
+    private File indexPath;
     private RandomAccessFile indexFile;
     private String jobId;
     private Progress progress;
@@ -45,6 +57,8 @@ public class JobIndex implements Closeable {
         this.jobId = jobId;
         pendingTasks = new LinkedList<TaskAttemptID>();
         waitingTasks = new TreeMap<Long, TaskAttemptID>();
+        tasks = new TreeMap<Long, TaskAttemptID>();
+        reducePhase = false;
 
         progress = new Progress();
         progress.setStatus(jobId);
@@ -52,16 +66,40 @@ public class JobIndex implements Closeable {
         mapperProgress = progress.addPhase("mapPhase");
         reducerProgress = progress.addPhase("reducePhase");
 
-        indexFile = new RandomAccessFile(directory.getCanonicalPath() + File.separator + "index", "rw");
+        indexPath = new File(directory.getCanonicalPath() + File.separator + "index");
+        indexFile = new RandomAccessFile(indexPath, "rw");
     }
 
     public boolean recover() throws IOException {
         if(indexFile.length() > 0) {
+            // legacy records start with the attempt byte and the high byte
+            // of the assign time, which is always zero, so they can't be
+            // mistaken for the magic number
+            boolean legacy = indexFile.length() < HEADER_LENGTH || indexFile.readInt() != INDEX_MAGIC;
+
+            if(legacy) {
+                indexFile.seek(0);
+            } else {
+                int version = indexFile.readByte();
+                if(version != INDEX_VERSION)
+                    throw new IOException("Unsupported job index version " + version + " in " + indexPath);
+            }
+
             try {
-                while(true) {
-                    TaskAttemptID taid = new TaskAttemptID();
-                    taid.readIndexFields(indexFile);
-                    taid.setProgress(mapperProgress.addPhase(String.valueOf(taid.getTaskID())));
+                for(long i = 0; ; i++) {
+                    TaskAttemptID taid = new TaskAttemptID(this.jobId, i, 0);
+                    if(legacy)
+                        taid.readLegacyIndexFields(indexFile);
+                    else
+                        taid.readIndexFields(indexFile);
+
+                    if(taid.getType() == TaskAttemptID.Type.Reduce) {
+                        reducePhase = true;
+                        taid.setProgress(reducerProgress.addPhase(String.valueOf(taid.getPartition())));
+                    } else {
+                        taid.setProgress(mapperProgress.addPhase(String.valueOf(i)));
+                    }
+                    tasks.put(i, taid);
 
                     if(taid.getStatus() != TaskAttemptID.Status.Finished) {
                         pendingTasks.add(taid);
@@ -73,21 +111,96 @@ public class JobIndex implements Closeable {
                 // ignore
             }
 
+            if(legacy)
+                upgrade();
+
             return true;
         }
 
         return false;
     }
 
+    /**
+     * Rewrites a legacy index in the current layout. The new file is written
+     * beside the old one and renamed over it, so a crash leaves one of the
+     * two intact.
+     */
+    private void upgrade() throws IOException {
+        File upgraded = new File(indexPath.getPath() + ".upgrade");
+        RandomAccessFile out = new RandomAccessFile(upgraded, "rw");
+
+        try {
+            out.setLength(0);
+            writeHeader(out);
+            for(TaskAttemptID taid : tasks.values()) {
+                taid.writeIndex(out);
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        indexFile.close();
+        boolean renamed = upgraded.renameTo(indexPath);
+        indexFile = new RandomAccessFile(indexPath, "rw");
+
+        if(!renamed)
+            throw new IOException("Could not replace " + indexPath + " with " + upgraded);
+    }
+
+    private static void writeHeader(RandomAccessFile file) throws IOException {
+        file.seek(0);
+        file.writeInt(INDEX_MAGIC);
+        file.writeByte(INDEX_VERSION);
+    }
+
+    private void seek(long taskID) throws IOException {
+        indexFile.seek(HEADER_LENGTH + taskID * TaskAttemptID.INDEX_LENGTH);
+    }
+
     public void build(long taskCount) throws IOException {
         TaskAttemptID taid;
 
+        writeHeader(indexFile);
         for (long i = 0; i < taskCount; i++) {
             taid = new TaskAttemptID(this.jobId, i, 0);
             taid.setProgress(mapperProgress.addPhase(String.valueOf(i)));
             pendingTasks.add(taid);
+            tasks.put(i, taid);
+            taid.writeIndex(indexFile);
+        }
+    }
+
+    /**
+     * Queues one reduce task per partition, numbered after the map tasks.
+     * Only the first call does anything.
+     *
+     * @return whether the reduce tasks were queued by this call
+     */
+    public synchronized boolean buildReducePhase(int partitions) throws IOException {
+        if(reducePhase) return false;
+        reducePhase = true;
+
+        long firstTaskID = tasks.size();
+
+        for(int p = 0; p < partitions; p++) {
+            TaskAttemptID taid = new TaskAttemptID(this.jobId, firstTaskID + p, 0, TaskAttemptID.Type.Reduce, p);
+            taid.setProgress(reducerProgress.addPhase(String.valueOf(p)));
+            pendingTasks.add(taid);
+            tasks.put(taid.getTaskID(), taid);
+
+            seek(taid.getTaskID());
             taid.writeIndex(indexFile);
         }
+
+        return true;
+    }
+
+    /**
+     * @return the task with the given id, or null if there is no such task
+     */
+    public synchronized TaskAttemptID getTask(long taskID) {
+        return tasks.get(taskID);
     }
 
     public synchronized TaskAttemptID getNextTask() {
@@ -99,7 +212,7 @@ public class JobIndex implements Closeable {
             waitingTasks.put(taid.getTaskID(), taid);
 
             try {
-                indexFile.seek(taid.getTaskID() * TaskAttemptID.INDEX_LENGTH);
+                seek(taid.getTaskID());
                 taid.writeIndex(indexFile);
             } catch(IOException ex) {}
 
@@ -113,7 +226,7 @@ public class JobIndex implements Closeable {
                     taid.touchAssignTime();
                     
                     try {
-                        indexFile.seek(taid.getTaskID() * TaskAttemptID.INDEX_LENGTH);
+                        seek(taid.getTaskID());
                         taid.writeIndex(indexFile);
                     } catch(IOException ex) {}
 
@@ -138,7 +251,7 @@ public class JobIndex implements Closeable {
         waitingTasks.remove(taskID);
 
         try {
-            indexFile.seek(taid.getTaskID() * TaskAttemptID.INDEX_LENGTH);
+            seek(taid.getTaskID());
             taid.writeIndex(indexFile);
         } catch(IOException ex) {}
 
@@ -169,7 +282,7 @@ public class JobIndex implements Closeable {
         waitingTasks.remove(taskID);
 
         try {
-            indexFile.seek(taid.getTaskID() * TaskAttemptID.INDEX_LENGTH);
+            seek(taid.getTaskID());
             taid.writeIndex(indexFile);
         } catch(IOException ex) {}
 
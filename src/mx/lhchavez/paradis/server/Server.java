@@ -19,10 +19,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.Arrays;
 import mx.lhchavez.paradis.io.WritableThrowable;
 import mx.lhchavez.paradis.mapreduce.TaskAttemptID;
 import mx.lhchavez.paradis.util.Progress;
@@ -31,6 +33,7 @@ import org.restlet.Component;
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.Restlet;
+import org.restlet.data.Encoding;
 import org.restlet.data.MediaType;
 import org.restlet.data.Protocol;
 import org.restlet.data.Status;
@@ -115,7 +118,43 @@ public class Server extends Application {
                 File f = new File("jobs" + File.separator + request.getAttributes().get("jobId") + File.separator + "output" + File.separator + request.getAttributes().get("file"));
 
                 if(f.exists()) {
-                    response.setEntity(new FileRepresentation(f, MediaType.APPLICATION_OCTET_STREAM));
+                    response.setEntity(outputRepresentation(f));
+                    return;
+                }
+
+                response.setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+                response.setEntity(new StringRepresentation("", MediaType.TEXT_PLAIN));
+            }
+        });
+
+        router.attach("/job/{jobId}/output/{partition}/{file}", new Restlet(getContext()) {
+            @Override
+            public void handle(Request request, Response response) {
+
+                File f = new File("jobs" + File.separator + request.getAttributes().get("jobId") + File.separator + "output" + File.separator + request.getAttributes().get("partition") + File.separator + request.getAttributes().get("file"));
+
+                if(f.isFile()) {
+                    response.setEntity(outputRepresentation(f));
+                    return;
+                }
+
+                response.setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+                response.setEntity(new StringRepresentation("", MediaType.TEXT_PLAIN));
+            }
+        });
+
+        router.attach("/job/{jobId}/output", new Restlet(getContext()) {
+            @Override
+            public void handle(Request request, Response response) {
+                File finished = new File("jobs" + File.separator + request.getAttributes().get("jobId") + File.separator + "finished");
+                File output = new File("jobs" + File.separator + request.getAttributes().get("jobId") + File.separator + "output");
+
+                if(finished.exists() && output.isDirectory()) {
+                    // one line per output file, relative to the output directory
+                    StringBuilder listing = new StringBuilder();
+                    listOutput(output, "", listing);
+
+                    response.setEntity(new StringRepresentation(listing.toString(), MediaType.TEXT_PLAIN));
                     return;
                 }
 
@@ -210,9 +249,12 @@ public class Server extends Application {
                 Job j = JobTracker.getInstance().getById((String)request.getAttributes().get("jobId"));
 
                 if(j != null) {
-                    TaskAttemptID taid = new TaskAttemptID(j.getID(), Long.valueOf((String)request.getAttributes().get("taskId")), 0);
+                    TaskAttemptID taid = j.getTask(Long.valueOf((String)request.getAttributes().get("taskId")));
                     
                     try {
+                        if(taid == null)
+                            throw new FileNotFoundException((String)request.getAttributes().get("taskId"));
+
                         response.setEntity(new TaskRepresentation(taid));
                     } catch (IOException ex) {
                         response.setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
@@ -285,11 +327,15 @@ public class Server extends Application {
                 Job j = JobTracker.getInstance().getById((String)request.getAttributes().get("jobId"));
 
                 if(j != null) {
-                    TaskAttemptID taid = new TaskAttemptID(j.getID(), Long.valueOf((String)request.getAttributes().get("taskId")), 0);
-                    taid.touchAssignTime();
-                    Progress p = taid.getProgress();
-                    if(p != null)
-                        p.set(Float.valueOf(request.getEntityAsText()));
+                    // update the indexed task so that progress reports also
+                    // renew its lease
+                    TaskAttemptID taid = j.getTask(Long.valueOf((String)request.getAttributes().get("taskId")));
+                    if(taid != null) {
+                        taid.touchAssignTime();
+                        Progress p = taid.getProgress();
+                        if(p != null)
+                            p.set(Float.valueOf(request.getEntityAsText()));
+                    }
                     response.setEntity(new StringRepresentation("", MediaType.TEXT_PLAIN));
                 } else {
                     response.setStatus(Status.CLIENT_ERROR_NOT_FOUND);
@@ -355,6 +401,34 @@ public class Server extends Application {
         return router;
     }
 
+    /**
+     * Serves an output file as it is stored. Compressed outputs are sent as
+     * they are, with the Content-Encoding that lets the client decode them.
+     */
+    private static FileRepresentation outputRepresentation(File f) {
+        FileRepresentation representation = new FileRepresentation(f, MediaType.APPLICATION_OCTET_STREAM);
+
+        if(f.getName().endsWith(".gz"))
+            representation.getEncodings().add(Encoding.GZIP);
+        else if(f.getName().endsWith(".deflate"))
+            representation.getEncodings().add(Encoding.DEFLATE);
+
+        return representation;
+    }
+
+    private static void listOutput(File directory, String prefix, StringBuilder listing) {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+
+        for(File f : files) {
+            if(f.isDirectory()) {
+                listOutput(f, prefix + f.getName() + "/", listing);
+            } else {
+                listing.append(prefix).append(f.getName()).append('\n');
+            }
+        }
+    }
+
     private static String exceptionToString(Throwable ex) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         PrintWriter out = new PrintWriter(new OutputStreamWriter(baos));
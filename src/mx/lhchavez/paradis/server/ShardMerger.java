@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2009, Luis Hector Chavez <lhchavez@lhchavez.com>
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package mx.lhchavez.paradis.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import mx.lhchavez.paradis.io.MergeSorter;
+import mx.lhchavez.paradis.io.RecordReader;
+import mx.lhchavez.paradis.io.StreamRecordReader;
+import mx.lhchavez.paradis.io.StreamRecordWriter;
+import mx.lhchavez.paradis.io.Writable;
+import mx.lhchavez.paradis.io.WritableComparable;
+import mx.lhchavez.paradis.util.Configuration;
+
+/**
+ * Merges the map output shards of a job in the background while the map
+ * tasks are still running. Every time a partition collects merge.factor new
+ * shards they are replaced by a single sorted run, so once the last map task
+ * finishes the reducers only have a small final merge left.
+ *
+ * Before a run replaces its shards, the shards are listed in a manifest in
+ * the work directory. If the process dies after the run is in place but
+ * before the shards are gone, the next merger for the job deletes them
+ * instead of letting them be reduced a second time.
+ *
+ * @author lhchavez
+ */
+public class ShardMerger<K extends WritableComparable<K>, V extends Writable> {
+    private Configuration conf;
+    private File workDirectory;
+    private int factor;
+    private List<File>[] pending;
+    private ExecutorService executor;
+    private int runCount;
+
+    public ShardMerger(Configuration conf, int partitions, File workDirectory) {
+        this.conf = conf;
+        this.workDirectory = workDirectory;
+        this.factor = Math.max(2, conf.getInt("merge.factor", 10));
+        this.pending = new List[partitions];
+        this.runCount = 0;
+
+        for(int p = 0; p < partitions; p++) {
+            pending[p] = new ArrayList<File>();
+        }
+
+        recover();
+
+        // a job that never gets to reduce must not keep the process alive
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ShardMerger");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Registers a shard that was just stored in its partition directory.
+     */
+    public synchronized void add(final int partition, File shard) {
+        if(executor.isShutdown()) return;
+
+        pending[partition].add(shard);
+
+        if(pending[partition].size() >= factor) {
+            final List<File> group = new ArrayList<File>(pending[partition]);
+            // the count starts over whenever the job is loaded again, so it
+            // skips the runs that were merged before
+            File name;
+            do {
+                name = new File(shard.getParentFile(), "merged." + (runCount++));
+            } while(name.exists());
+            final File run = name;
+            pending[partition].clear();
+
+            executor.submit(new Runnable() {
+                public void run() {
+                    merge(partition, group, run);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops taking new shards and waits for the merges in flight.
+     */
+    public void finish() {
+        executor.shutdown();
+
+        try {
+            while(!executor.awaitTermination(1, TimeUnit.MINUTES));
+        } catch(InterruptedException ex) {
+            Logger.getLogger(ShardMerger.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void merge(int partition, List<File> shards, File run) {
+        File partial = new File(workDirectory + File.separator + run.getName());
+        File manifest = new File(workDirectory + File.separator + run.getName() + ".shards");
+        File spillDirectory = new File(workDirectory + File.separator + partition);
+
+        try {
+            Class<? extends K> keyClass = (Class<? extends K>) conf.getKeyOutClass();
+            Class<? extends V> valueClass = (Class<? extends V>) conf.getValueOutClass();
+
+            MergeSorter<K, V> sorter = new MergeSorter<K, V>(keyClass, valueClass, conf.getSortComparator(),
+                    spillDirectory, conf.getInt("sort.memory", 64) * 1024L * 1024L, conf.getInt("sort.factor", 64));
+
+            for(File shard : shards) {
+                StreamRecordReader<K, V> reader = new StreamRecordReader<K, V>(new FileInputStream(shard), keyClass, valueClass);
+                reader.setReuse(true);
+
+                if(reader.isSorted()) {
+                    reader.close();
+                    sorter.addRun(shard);
+                    continue;
+                }
+
+                while(reader.nextKeyValue()) {
+                    sorter.write(reader.getCurrentKey(), reader.getCurrentValue());
+                }
+                reader.close();
+            }
+
+            RecordReader<K, V> merged = sorter.merge();
+            StreamRecordWriter<K, V> writer = new StreamRecordWriter<K, V>();
+            writer.setFlags(conf.getRecordFlags() | StreamRecordWriter.SORTED);
+            writer.setBlockSize(conf.getRecordBlockSize());
+            partial.delete();
+            writer.setOutput(new RandomAccessFile(partial, "rw"));
+
+            while(merged.nextKeyValue()) {
+                writer.write(merged.getCurrentKey(), merged.getCurrentValue());
+            }
+
+            writer.close();
+            merged.close();
+            sorter.close();
+
+            writeManifest(manifest, run, shards);
+
+            if(!partial.renameTo(run)) {
+                manifest.delete();
+                throw new IOException("Unable to commit " + run);
+            }
+
+            for(File shard : shards) {
+                shard.delete();
+            }
+            manifest.delete();
+        } catch(Exception ex) {
+            // the shards are still there, so the reducers will merge them
+            Logger.getLogger(ShardMerger.class.getName()).log(Level.SEVERE, "Unable to merge partition " + partition, ex);
+            partial.delete();
+            manifest.delete();
+        }
+    }
+
+    /**
+     * Lists the run and the shards it replaces, and makes sure the list is
+     * on disk before the run is.
+     */
+    private void writeManifest(File manifest, File run, List<File> shards) throws IOException {
+        FileOutputStream file = new FileOutputStream(manifest);
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(file, "UTF-8"));
+
+        try {
+            out.println(run.getPath());
+            for(File shard : shards) {
+                out.println(shard.getPath());
+            }
+
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Finishes the merges that were interrupted by the last shutdown: the
+     * shards of every run that made it into place are deleted, and whatever
+     * else is left in the work directory is discarded.
+     */
+    private void recover() {
+        File[] files = workDirectory.listFiles();
+        if(files == null) return;
+
+        for(File f : files) {
+            if(f.isDirectory()) continue;
+
+            if(f.getName().endsWith(".shards")) {
+                try {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+
+                    try {
+                        String run = in.readLine();
+
+                        if(run != null && new File(run).exists()) {
+                            String shard;
+                            while((shard = in.readLine()) != null) {
+                                new File(shard).delete();
+                            }
+                        }
+                    } finally {
+                        in.close();
+                    }
+                } catch(IOException ex) {
+                    Logger.getLogger(ShardMerger.class.getName()).log(Level.SEVERE, "Unable to recover " + f, ex);
+                    continue;
+                }
+            }
+
+            f.delete();
+        }
+    }
+}
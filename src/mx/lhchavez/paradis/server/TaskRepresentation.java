@@ -16,13 +16,13 @@
 
 package mx.lhchavez.paradis.server;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
+import mx.lhchavez.paradis.io.DataOutputBuffer;
 import mx.lhchavez.paradis.mapreduce.TaskAttemptID;
 import org.restlet.data.MediaType;
 import org.restlet.representation.OutputRepresentation;
@@ -33,48 +33,79 @@ import org.restlet.representation.OutputRepresentation;
  */
 public class TaskRepresentation extends OutputRepresentation {
     private TaskAttemptID taid;
-    byte[] taidBytes;
+    DataOutputBuffer taidBuffer;
     File inputSplitFile;
+    File[] shards;
     
     public TaskRepresentation(TaskAttemptID taid) throws IOException {
         super(new MediaType("application/paradis-task"));
 
         this.taid = taid;
         
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream(baos);
-        taid.write(out);
-        out.close();
+        taidBuffer = new DataOutputBuffer(TaskAttemptID.INDEX_LENGTH);
+        taid.write(taidBuffer);
 
-        taidBytes = baos.toByteArray();
+        if(taid.getType() == TaskAttemptID.Type.Reduce) {
+            // a reduce task carries every map output shard of its partition
+            File partitionDirectory = new File("jobs" + File.separator + taid.getJobID() + File.separator + "out" + File.separator + taid.getPartition());
+            shards = partitionDirectory.listFiles();
 
-        inputSplitFile = new File("jobs" + File.separator + taid.getJobID() + File.separator + "in" + File.separator + taid.getTaskID());
+            if(shards == null)
+                throw new FileNotFoundException(partitionDirectory.getCanonicalPath());
+        } else {
+            inputSplitFile = new File("jobs" + File.separator + taid.getJobID() + File.separator + "in" + File.separator + taid.getTaskID());
 
-        if(!inputSplitFile.exists())
-            throw new FileNotFoundException(inputSplitFile.getCanonicalPath());
+            if(!inputSplitFile.exists())
+                throw new FileNotFoundException(inputSplitFile.getCanonicalPath());
+        }
     }
 
     @Override
     public long getSize() {
-        return 4L + taidBytes.length + inputSplitFile.length();
+        if(shards != null) {
+            long size = 4L + taidBuffer.getLength() + 4L;
+
+            for(File shard : shards) {
+                size += 8L + shard.length();
+            }
+
+            return size;
+        }
+
+        return 4L + taidBuffer.getLength() + inputSplitFile.length();
     }
     
     @Override
     public void write(OutputStream arg0) throws IOException {
         DataOutputStream output = new DataOutputStream(arg0);
 
-        output.writeInt(taidBytes.length);
-        output.write(taidBytes);
+        output.writeInt(taidBuffer.getLength());
+        taidBuffer.writeTo(output);
+
+        if(shards != null) {
+            output.writeInt(shards.length);
 
+            for(File shard : shards) {
+                output.writeLong(shard.length());
+                copy(shard, output);
+            }
+        } else {
+            copy(inputSplitFile, output);
+        }
+
+        output.close();
+    }
+
+    private void copy(File file, OutputStream output) throws IOException {
         byte[] buffer = new byte[4096];
         int read = 0;
 
-        FileInputStream fis = new FileInputStream(inputSplitFile);
+        FileInputStream fis = new FileInputStream(file);
 
         while((read = fis.read(buffer)) > 0) {
             output.write(buffer, 0, read);
         }
 
-        output.close();
+        fis.close();
     }
 }
@@ -28,15 +28,22 @@ import java.net.URLClassLoader;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import mx.lhchavez.paradis.io.RawComparator;
+import mx.lhchavez.paradis.io.StreamRecordWriter;
 import mx.lhchavez.paradis.io.Writable;
 import mx.lhchavez.paradis.io.WritableComparable;
+import mx.lhchavez.paradis.io.WritableComparator;
+import mx.lhchavez.paradis.io.WritableFactory;
+import mx.lhchavez.paradis.mapreduce.HashPartitioner;
 import mx.lhchavez.paradis.mapreduce.Mapper;
+import mx.lhchavez.paradis.mapreduce.Partitioner;
 import mx.lhchavez.paradis.mapreduce.Reducer;
 import mx.lhchavez.paradis.mapreduce.InputFormat;
 import mx.lhchavez.paradis.mapreduce.OutputFormat;
@@ -59,10 +66,15 @@ public class Configuration implements Iterable<Map.Entry<String,Object>>, Writab
 
     private Class<? extends Mapper> mapperClass;
     private Class<? extends Reducer> reducerClass;
+    private Class<? extends Reducer> combinerClass;
+    private Class<? extends Partitioner> partitionerClass;
+    private Class<? extends RawComparator> sortComparatorClass;
+    private Class<? extends RawComparator> groupingComparatorClass;
     private Class<? extends InputFormat> inputFormatClass;
     private Class<? extends OutputFormat> outputFormatClass;
 
     private URLClassLoader loader;
+    private Map<Class, WritableFactory> factories;
 
     public Configuration(InputStream is) throws IOException {
         this(is, null);
@@ -70,6 +82,7 @@ public class Configuration implements Iterable<Map.Entry<String,Object>>, Writab
 
     public Configuration(InputStream is, File jobDirectory) throws IOException {
         values = new TreeMap<String, Object>();
+        factories = new HashMap<Class, WritableFactory>();
         this.jobDirectory = jobDirectory;
 
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
@@ -190,6 +203,22 @@ public class Configuration implements Iterable<Map.Entry<String,Object>>, Writab
             return defaultValue;
     }
 
+    public boolean getBoolean(String name) {
+        return getBoolean(name, false);
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        if(values.containsKey(name)) {
+            Object o = values.get(name);
+            if(o instanceof Boolean) {
+                return ((Boolean)o).booleanValue();
+            } else {
+                return Boolean.parseBoolean(o.toString().trim());
+            }
+        } else
+            return defaultValue;
+    }
+
     public byte[] getByteArray(String name) {
         if(values.containsKey(name)) {
             Object o = values.get(name);
@@ -272,12 +301,30 @@ public class Configuration implements Iterable<Map.Entry<String,Object>>, Writab
         valueOutClass = (Class<? extends Writable>) loader.loadClass(getString("reducer.value.class"));
 
         // if paradis throws up, it WILL throw up here, and not later in the process :P
-        getKeyInClass().newInstance();
-        getValueInClass().newInstance();
-        getKeyOutClass().newInstance();
-        getValueOutClass().newInstance();
+        getWritableFactory(getKeyInClass()).newInstance();
+        getWritableFactory(getValueInClass()).newInstance();
+        getWritableFactory(getKeyOutClass()).newInstance();
+        getWritableFactory(getValueOutClass()).newInstance();
         mapperClass = (Class<? extends Mapper>) loader.loadClass(getString("mapper.class"));
         reducerClass = (Class<? extends Reducer>) loader.loadClass(getString("reducer.class"));
+        if(getString("combiner.class") != null)
+            combinerClass = (Class<? extends Reducer>) loader.loadClass(getString("combiner.class"));
+        if(getString("partitioner.class") != null)
+            partitionerClass = (Class<? extends Partitioner>) loader.loadClass(getString("partitioner.class"));
+        else
+            partitionerClass = HashPartitioner.class;
+        if(getString("sort.comparator.class") != null)
+            sortComparatorClass = (Class<? extends RawComparator>) loader.loadClass(getString("sort.comparator.class"));
+        if(getString("grouping.comparator.class") != null) {
+            // the hash partitioner hashes the whole key, so it would split a
+            // group across partitions and each one would reduce a piece of it
+            if(getString("partitioner.class") == null && getInt("reduce.partitions", 1) > 1)
+                throw new IllegalArgumentException("grouping.comparator.class with more than one reduce partition needs a partitioner.class that keeps each group in one partition");
+            // hash mode groups by the whole key and doesn't sort the values
+            if("hash".equals(getString("reduce.mode", "sort")))
+                throw new IllegalArgumentException("grouping.comparator.class can't be used with reduce.mode=hash");
+            groupingComparatorClass = (Class<? extends RawComparator>) loader.loadClass(getString("grouping.comparator.class"));
+        }
         inputFormatClass = (Class<? extends InputFormat>) loader.loadClass(getString("inputFormat.class"));
         outputFormatClass = (Class<? extends OutputFormat>) loader.loadClass(getString("outputFormat.class"));
     }
@@ -331,6 +378,84 @@ public class Configuration implements Iterable<Map.Entry<String,Object>>, Writab
         return reducerClass;
     }
 
+    /**
+     * @return the combinerClass, or null if the job doesn't have a combiner
+     */
+    public Class<? extends Reducer> getCombinerClass() {
+        return combinerClass;
+    }
+
+    /**
+     * @return the partitionerClass
+     */
+    public Class<? extends Partitioner> getPartitionerClass() {
+        return partitionerClass;
+    }
+
+    /**
+     * @return a comparator that sorts the map output keys, either the one set
+     * in sort.comparator.class or the one registered for the key class
+     */
+    public RawComparator getSortComparator() throws InstantiationException, IllegalAccessException {
+        if(sortComparatorClass != null)
+            return sortComparatorClass.newInstance();
+
+        return WritableComparator.get(getKeyOutClass());
+    }
+
+    /**
+     * @return a comparator that decides which sorted keys are reduced
+     * together, either the one set in grouping.comparator.class or the sort
+     * comparator
+     */
+    public RawComparator getGroupingComparator() throws InstantiationException, IllegalAccessException {
+        if(groupingComparatorClass != null)
+            return groupingComparatorClass.newInstance();
+
+        return getSortComparator();
+    }
+
+    /**
+     * @return the {@link StreamRecordWriter} flags that record.blocks,
+     * record.compression, record.checksums and record.vint ask for
+     */
+    public int getRecordFlags() {
+        int flags = 0;
+        if(getBoolean("record.blocks", false))
+            flags |= StreamRecordWriter.BLOCKED;
+        if(getBoolean("record.compression", false))
+            flags |= StreamRecordWriter.COMPRESSED;
+        if(getBoolean("record.checksums", false))
+            flags |= StreamRecordWriter.CHECKSUMMED;
+        if(getBoolean("record.vint", false))
+            flags |= StreamRecordWriter.VINT_LENGTHS;
+
+        return flags;
+    }
+
+    /**
+     * @return the size of the blocks of record streams, from
+     * record.block.size
+     */
+    public int getRecordBlockSize() {
+        return getInt("record.block.size", 64 * 1024);
+    }
+
+    /**
+     * @return the factory for a Writable class of this job. It is resolved
+     * the first time it is asked for and reused afterwards.
+     */
+    public synchronized <T extends Writable> WritableFactory<T> getWritableFactory(Class<? extends T> c) {
+        WritableFactory<T> factory = factories.get(c);
+
+        if(factory == null) {
+            factory = WritableFactory.get(c);
+            factories.put(c, factory);
+        }
+
+        return factory;
+    }
+
     /**
      * @return the inputFormatClass
      */
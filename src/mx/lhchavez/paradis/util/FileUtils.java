@@ -16,7 +16,9 @@
 
 package mx.lhchavez.paradis.util;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -25,8 +27,12 @@ import java.math.BigInteger;
 import java.net.URL;
 import java.net.URLConnection;
 import java.security.MessageDigest;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 /**
  *
@@ -114,6 +120,18 @@ public class FileUtils {
         URLConnection conn = url.openConnection();
         conn.connect();
         InputStream is = conn.getInputStream();
+
+        // compressed streams detect truncation by themselves, and their
+        // content length doesn't match the decoded size anyway
+        String encoding = conn.getContentEncoding();
+        boolean encoded = true;
+        if("gzip".equals(encoding))
+            is = new GZIPInputStream(is);
+        else if("deflate".equals(encoding))
+            is = new InflaterInputStream(is);
+        else
+            encoded = false;
+
         FileOutputStream out = new FileOutputStream(destination);
 
         while((read = is.read(buffer)) > 0) {
@@ -121,13 +139,26 @@ public class FileUtils {
             total += read;
         }
 
-        if(total < conn.getContentLength())
+        if(!encoded && total < conn.getContentLength())
             throw new IOException("Download truncated");
 
         is.close();
         out.close();
     }
 
+    /**
+     * Deletes a file, or a directory along with everything inside it.
+     */
+    public static boolean delete(File f) {
+        if(f.isDirectory()) {
+            for(File child : f.listFiles()) {
+                delete(child);
+            }
+        }
+
+        return f.delete();
+    }
+
     public static void copy(InputStream is, OutputStream os) throws IOException {
         copy(is, os, true);
     }
@@ -143,4 +174,61 @@ public class FileUtils {
             os.close();
         os.flush();
     }
+
+    /**
+     * Copies exactly length bytes from is into os, leaving both open.
+     */
+    public static void copy(InputStream is, OutputStream os, long length) throws IOException {
+        byte[] buffer = new byte[4096];
+        int read;
+
+        while(length > 0) {
+            read = is.read(buffer, 0, (int)Math.min(buffer.length, length));
+            if(read <= 0)
+                throw new EOFException();
+
+            os.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    /**
+     * Writes the files in a directory (not its subdirectories) as a zip
+     * archive into os, and closes it.
+     */
+    public static void zip(File directory, OutputStream os) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(os);
+
+        for(File f : directory.listFiles()) {
+            if(!f.isFile()) continue;
+
+            zip.putNextEntry(new ZipEntry(f.getName()));
+            FileInputStream fis = new FileInputStream(f);
+            copy(fis, zip, false);
+            fis.close();
+            zip.closeEntry();
+        }
+
+        zip.close();
+    }
+
+    /**
+     * Extracts a zip archive written by {@link #zip(File, OutputStream)} into
+     * a directory. Entry paths are ignored, only their names are kept.
+     */
+    public static void unzip(InputStream is, File directory) throws IOException {
+        ZipInputStream zip = new ZipInputStream(is);
+        ZipEntry entry;
+
+        directory.mkdirs();
+
+        while((entry = zip.getNextEntry()) != null) {
+            if(entry.isDirectory()) continue;
+
+            FileOutputStream fos = new FileOutputStream(new File(directory, new File(entry.getName()).getName()));
+            copy(zip, fos);
+        }
+
+        zip.close();
+    }
 }